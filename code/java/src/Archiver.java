@@ -0,0 +1,116 @@
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class keeps Appointment down to its working set with the functions of
+ * migration V007. Each run first marks every appointment dated before today
+ * as PA, then moves the PA appointments older than the retention period,
+ * with their has_appointment, books, schedules and searches rows, to the
+ * archive tables, which are partitioned by year. Both steps go in batches of
+ * one short transaction each, skipping rows a booking holds locked, so they
+ * can run next to live traffic.
+ *
+ * It runs once with DBproject ... --archive and on a background thread every
+ * dbproject.archive.intervalMs in --serve mode.
+ *
+ */
+
+public class Archiver{
+	//first migration with the archive tables
+	static final int ARCHIVE_VERSION = 7;
+	static final String ARCHIVE_TABLES = "appointment_archive, has_appointment_archive, books_archive, schedules_archive, searches_archive";
+	//appointments per transaction, overridable with -Ddbproject.archive.batch=...
+	static final int BATCH = Integer.getInteger("dbproject.archive.batch", 1000);
+	//days a past appointment stays in Appointment before it is archived
+	static final int KEEP_DAYS = Integer.getInteger("dbproject.archive.keepDays", 90);
+	//pause between background runs, 0 disables them
+	static final long INTERVAL = Long.getLong("dbproject.archive.intervalMs", 3600000L);
+
+	private final DBproject _esql;
+	private ScheduledExecutorService _timer = null;
+
+	public Archiver(DBproject esql){
+		this._esql = esql;
+	}
+
+	/**
+	 * Method to flip every elapsed appointment to PA.
+	 *
+	 * @return the number of appointments changed
+	 * @throws java.sql.SQLException when a batch failed
+	 */
+	public int expire() throws SQLException {
+		int total = 0;
+		int n;
+		do{
+			n = this._esql.executeQueryAndReturnColumns(Query.EXPIRE_APPOINTMENTS, BATCH).getInt(0, 0);
+			total += n;
+		}while (n == BATCH);
+		return total;
+	}//end expire
+
+	/**
+	 * Method to move the PA appointments older than KEEP_DAYS to the archive.
+	 *
+	 * @return the number of appointments moved
+	 * @throws java.sql.SQLException when a batch failed
+	 */
+	public int archive() throws SQLException {
+		int total = 0;
+		int n;
+		do{
+			n = this._esql.executeQueryAndReturnColumns(Query.ARCHIVE_APPOINTMENTS, KEEP_DAYS, BATCH).getInt(0, 0);
+			total += n;
+		}while (n == BATCH);
+		return total;
+	}//end archive
+
+	/**
+	 * Method to expire and then archive.
+	 *
+	 * @return a one-line summary of the run
+	 * @throws java.sql.SQLException when a batch failed
+	 * @throws IllegalStateException when migration V007 is not applied
+	 */
+	public String run() throws SQLException {
+		if (this._esql.getSchemaVersion() < ARCHIVE_VERSION) throw new IllegalStateException("Archiving needs migration V007");
+		int expired = expire();
+		int archived = archive();
+		return expired + " appointment(s) expired, " + archived + " archived";
+	}
+
+	/**
+	 * Method to run every INTERVAL on a daemon thread until closed. Does
+	 * nothing when INTERVAL is 0 or V007 is not applied.
+	 *
+	 * @throws java.sql.SQLException when the schema version cannot be read
+	 */
+	public synchronized void start() throws SQLException {
+		if (this._timer != null || INTERVAL <= 0 || this._esql.getSchemaVersion() < ARCHIVE_VERSION) return;
+		this._timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+			public Thread newThread(Runnable r){
+				Thread t = new Thread(r, "appointment-archiver");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		this._timer.scheduleWithFixedDelay(new Runnable(){
+			public void run(){
+				try{
+					System.out.println("Archiver: " + Archiver.this.run());
+				}catch (Exception e){
+					// tried again next time
+					System.err.println("Archiver: " + e.getMessage());
+				}//end try
+			}
+		}, 0, INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized void close(){
+		if (this._timer != null) this._timer.shutdownNow();
+		this._timer = null;
+	}
+}//end Archiver
@@ -0,0 +1,198 @@
+import java.lang.reflect.Method;
+import java.sql.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * This class runs the statements and operations of a DBproject off the
+ * calling thread and hands back CompletableFutures, so a caller can start
+ * independent lookups together and wait for them once.
+ *
+ * Tasks run on virtual threads when the JVM has them (Java 21 and later) and
+ * on a cached pool of daemon threads otherwise. Either way a semaphore with
+ * one permit per pooled connection is taken before a task touches the
+ * database: tasks beyond that wait on the semaphore, parked and for as long
+ * as needed, instead of on ConnectionPool.acquire, which gives up after
+ * dbproject.pool.acquireTimeoutMs.
+ *
+ */
+
+public class AsyncDBproject{
+	//Executors.newVirtualThreadPerTaskExecutor, null before Java 21
+	private static final Method VIRTUAL_EXECUTOR = virtualExecutorFactory();
+
+	private final DBproject _esql;
+	private final ExecutorService _executor;
+	private final Semaphore _permits;
+
+	public AsyncDBproject(DBproject esql){
+		this._esql = esql;
+		this._executor = newTaskExecutor("dbproject-async");
+		this._permits = new Semaphore(esql.getPool().getMaxSize(), true);
+	}
+
+	private static Method virtualExecutorFactory(){
+		try{
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		}catch (NoSuchMethodException e){
+			return null;
+		}//end try
+	}
+
+	/**
+	 * @return whether tasks run on virtual threads
+	 */
+	public static boolean virtualThreads(){
+		return VIRTUAL_EXECUTOR != null;
+	}
+
+	/**
+	 * Method to create an executor starting one thread per task: a virtual
+	 * thread when the JVM has them, else a daemon thread reused from a cache.
+	 *
+	 * @param name prefix of the platform thread names
+	 */
+	static ExecutorService newTaskExecutor(final String name){
+		if (VIRTUAL_EXECUTOR != null){
+			try{
+				return (ExecutorService) VIRTUAL_EXECUTOR.invoke(null);
+			}catch (ReflectiveOperationException e){
+				// falls back to platform threads.
+			}//end try
+		}//end if
+		return Executors.newCachedThreadPool(new ThreadFactory(){
+			private int _count = 0;
+			public synchronized Thread newThread(Runnable r){
+				Thread t = new Thread(r, name + "-" + (++this._count));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Method to run any call against the database asynchronously, holding
+	 * one permit while it runs.
+	 *
+	 * @param call the work, e.g. one or more DBproject calls
+	 * @return the future result; it fails with whatever the call threw
+	 */
+	public <T> CompletableFuture<T> submit(final Callable<T> call){
+		final CompletableFuture<T> future = new CompletableFuture<T>();
+		try{
+			this._executor.execute(new Runnable(){
+				public void run(){
+					try{
+						_permits.acquire();
+					}catch (InterruptedException e){
+						future.completeExceptionally(e);
+						return;
+					}//end try
+					try{
+						future.complete(call.call());
+					}catch (Throwable e){
+						future.completeExceptionally(e);
+					}finally{
+						_permits.release();
+					}
+				}
+			});
+		}catch (RuntimeException e){
+			// rejected after close
+			future.completeExceptionally(e);
+		}//end try
+		return future;
+	}//end submit
+
+	/*
+	 * Asynchronous versions of the DBproject statement methods.
+	 */
+
+	public CompletableFuture<Integer> executeUpdate(final Query query, final Object... params){
+		return submit(new Callable<Integer>(){
+			public Integer call() throws Exception { return _esql.executeUpdate(query, params); }
+		});
+	}
+
+	public CompletableFuture<Integer> executeQuery(final Query query, final Object... params){
+		return submit(new Callable<Integer>(){
+			public Integer call() throws Exception { return _esql.executeQuery(query, params); }
+		});
+	}
+
+	public CompletableFuture<List<List<String>>> executeQueryAndReturnResult(final Query query, final Object... params){
+		return submit(new Callable<List<List<String>>>(){
+			public List<List<String>> call() throws Exception { return _esql.executeQueryAndReturnResult(query, params); }
+		});
+	}
+
+	public CompletableFuture<ColumnarResult> executeQueryAndReturnColumns(final Query query, final Object... params){
+		return submit(new Callable<ColumnarResult>(){
+			public ColumnarResult call() throws Exception { return _esql.executeQueryAndReturnColumns(query, params); }
+		});
+	}
+
+	public <T> CompletableFuture<T> inTransaction(final DBproject.Work<T> work){
+		return submit(new Callable<T>(){
+			public T call() throws Exception { return _esql.inTransaction(work); }
+		});
+	}
+
+	/*
+	 * Asynchronous versions of the menu operations.
+	 */
+
+	public CompletableFuture<ReferenceCache.Doctor> findDoctor(final int doctor_id){
+		return submit(new Callable<ReferenceCache.Doctor>(){
+			public ReferenceCache.Doctor call() throws Exception { return _esql.getReferenceCache().doctor(doctor_id); }
+		});
+	}
+
+	public CompletableFuture<Boolean> appointmentExists(final int appnt_ID){
+		return submit(new Callable<Boolean>(){
+			public Boolean call() throws Exception { return _esql.executeQuery(Query.FIND_APPOINTMENT, appnt_ID) > 0; }
+		});
+	}
+
+	public CompletableFuture<String> makeAppointment(final String name, final String gender, final int age, final String address, final int doctor_id, final int appnt_ID){
+		return submit(new Callable<String>(){
+			public String call() throws Exception { return _esql.makeAppointment(name, gender, age, address, doctor_id, appnt_ID); }
+		});
+	}
+
+	public CompletableFuture<List<List<String>>> listAppointmentsOfDoctor(final int doctor_id, final Date begin, final Date end){
+		return submit(new Callable<List<List<String>>>(){
+			public List<List<String>> call() throws Exception { return _esql.listAppointmentsOfDoctor(doctor_id, begin, end); }
+		});
+	}
+
+	public CompletableFuture<List<List<String>>> listAvailableAppointmentsOfDepartment(final String name, final Date date){
+		return submit(new Callable<List<List<String>>>(){
+			public List<List<String>> call() throws Exception { return _esql.listAvailableAppointmentsOfDepartment(name, date); }
+		});
+	}
+
+	public CompletableFuture<List<List<String>>> listStatusCountsPerDoctor(){
+		return submit(new Callable<List<List<String>>>(){
+			public List<List<String>> call() throws Exception { return _esql.listStatusCountsPerDoctor(); }
+		});
+	}
+
+	public CompletableFuture<List<List<String>>> listPatientsWithStatusPerDoctor(final String status){
+		return submit(new Callable<List<List<String>>>(){
+			public List<List<String>> call() throws Exception { return _esql.listPatientsWithStatusPerDoctor(status); }
+		});
+	}
+
+	/**
+	 * Method to stop taking tasks; running ones finish.
+	 */
+	public void close(){
+		this._executor.shutdown();
+	}
+}//end AsyncDBproject
@@ -0,0 +1,198 @@
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * This class books and cancels appointments. Each call is one transaction:
+ * the appointment row is locked first, so concurrent clients going after the
+ * same slot queue on that row instead of double-booking it, and the status
+ * change, the books row, Patient.number_of_appts and has_appointment are
+ * committed together or not at all. The search behind a booking is recorded
+ * through SearchLog once the booking committed.
+ *
+ * Status transitions follow the _STATUS domain: the first patient turns an
+ * AV appointment AC, later ones are waitlisted and turn it WL. When the
+ * holder cancels, the longest waiting patient is promoted.
+ *
+ */
+
+public class BookingEngine{
+	private final DBproject _esql;
+
+	public BookingEngine(DBproject esql){
+		this._esql = esql;
+	}
+
+	/**
+	 * Method to book an appointment of a doctor for a patient, adding the
+	 * patient first if no patient matches.
+	 *
+	 * @return the status of the appointment after the booking, AC when the
+	 * patient holds it or WL when the patient was waitlisted
+	 * @throws java.sql.SQLException when the transaction failed
+	 * @throws IllegalStateException when the booking is not allowed
+	 */
+	public String book(final String name, final String gender, final int age, final String address,
+			final int doctor_id, final int appnt_ID) throws SQLException {
+		//hospital and patient of the committed attempt
+		final int[] search = new int[2];
+		String status = this._esql.inTransaction(new DBproject.Work<String>(){
+			public String run(ConnectionPool.PooledConnection pc) throws SQLException {
+				search[0] = hospitalOf(pc, doctor_id);
+				search[1] = resolvePatient(pc, name, gender, age, address);
+				return bookLocked(pc, search[1], doctor_id, appnt_ID, lockAppointment(pc, appnt_ID));
+			}
+		});
+		this._esql.getSearchLog().record(search[0], search[1], appnt_ID);
+		return status;
+	}//end book
+
+	/**
+	 * Method to book the first available appointment of a doctor on a date.
+	 * Rows locked by concurrent bookings are skipped rather than waited for,
+	 * so clients after the same doctor each get a different slot.
+	 *
+	 * @return the booked appointment ID, or -1 when the doctor has no
+	 * available appointment that day
+	 * @throws java.sql.SQLException when the transaction failed
+	 */
+	public int bookNextAvailable(final int patient_ID, final int doctor_id, final Date adate) throws SQLException {
+		final int[] hid = new int[1];
+		final Query next = this._esql.nextAvailableQuery();
+		int appnt_ID = this._esql.inTransaction(new DBproject.Work<Integer>(){
+			public Integer run(ConnectionPool.PooledConnection pc) throws SQLException {
+				hid[0] = hospitalOf(pc, doctor_id);
+				int appnt_ID = queryInt(pc, next, doctor_id, adate);
+				if (appnt_ID < 0) return -1;
+				bookLocked(pc, patient_ID, doctor_id, appnt_ID, "AV");
+				return appnt_ID;
+			}
+		});
+		if (appnt_ID >= 0) this._esql.getSearchLog().record(hid[0], patient_ID, appnt_ID);
+		return appnt_ID;
+	}//end bookNextAvailable
+
+	/**
+	 * Method to cancel a patient's booking. If the patient held the
+	 * appointment, the longest waiting patient takes it over; with nobody
+	 * waiting it becomes available again.
+	 *
+	 * @return the status of the appointment after the cancellation
+	 * @throws java.sql.SQLException when the transaction failed
+	 * @throws IllegalStateException when the patient has no such booking or
+	 * the appointment is in the past
+	 */
+	public String cancel(final int patient_ID, final int appnt_ID) throws SQLException {
+		return this._esql.inTransaction(new DBproject.Work<String>(){
+			public String run(ConnectionPool.PooledConnection pc) throws SQLException {
+				String status = lockAppointment(pc, appnt_ID);
+				// an elapsed slot is neither reopened nor handed to the waitlist
+				if (status.equals("PA")) throw new IllegalStateException("Appointment " + appnt_ID + " is in the past");
+				ResultSet rs = DBproject.bind(pc, Query.FIND_BOOKING, appnt_ID, patient_ID).executeQuery();
+				if (!rs.next()){
+					rs.close();
+					throw new IllegalStateException("Patient " + patient_ID + " has no booking for appointment " + appnt_ID);
+				}//end if
+				boolean waitlisted = rs.getBoolean(1);
+				rs.close();
+				DBproject.bind(pc, Query.DELETE_BOOKING, appnt_ID, patient_ID).executeUpdate();
+				DBproject.bind(pc, Query.ADD_PATIENT_APPOINTMENTS, -1, patient_ID).executeUpdate();
+
+				if (!waitlisted){
+					int next = queryInt(pc, Query.NEXT_WAITLISTED, appnt_ID);
+					if (next < 0){
+						status = "AV";
+					}else{
+						DBproject.bind(pc, Query.PROMOTE_BOOKING, appnt_ID, next).executeUpdate();
+						status = queryInt(pc, Query.COUNT_WAITLISTED, appnt_ID) > 0 ? "WL" : "AC";
+					}//end if
+				}else if (queryInt(pc, Query.COUNT_WAITLISTED, appnt_ID) == 0){
+					status = "AC";
+				}//end if
+				DBproject.bind(pc, Query.SET_APPOINTMENT_STATUS, status, appnt_ID).executeUpdate();
+				return status;
+			}
+		});
+	}//end cancel
+
+	/*
+	 * Caller holds the lock on the appointment row and passes its status.
+	 */
+	private String bookLocked(ConnectionPool.PooledConnection pc, int patient_ID, int doctor_id, int appnt_ID, String status) throws SQLException {
+		int owner = queryInt(pc, Query.FIND_APPOINTMENT_DOCTOR, appnt_ID);
+		if (owner >= 0 && owner != doctor_id){
+			throw new IllegalStateException("Appointment " + appnt_ID + " belongs to doctor " + owner);
+		}//end if
+		if (exists(pc, Query.FIND_BOOKING, appnt_ID, patient_ID)){
+			throw new IllegalStateException("Patient " + patient_ID + " already booked appointment " + appnt_ID);
+		}//end if
+
+		String next;
+		if (status.equals("AV")) next = "AC";
+		else if (status.equals("AC") || status.equals("WL")) next = "WL";
+		else throw new IllegalStateException("Appointment " + appnt_ID + " is in the past");
+
+		DBproject.bind(pc, Query.ADD_BOOKING, appnt_ID, patient_ID, !next.equals("AC")).executeUpdate();
+		if (!next.equals(status)){
+			DBproject.bind(pc, Query.SET_APPOINTMENT_STATUS, next, appnt_ID).executeUpdate();
+		}//end if
+		DBproject.bind(pc, Query.ADD_PATIENT_APPOINTMENTS, 1, patient_ID).executeUpdate();
+		try{
+			DBproject.bind(pc, Query.ADD_HAS_APPOINTMENT, appnt_ID, doctor_id).executeUpdate();
+		}catch (SQLException e){
+			// exclusion_violation of has_appointment_no_overlap, the whole booking rolls back
+			if ("23P01".equals(e.getSQLState())){
+				throw new IllegalStateException("Appointment " + appnt_ID + " overlaps another appointment of doctor " + doctor_id);
+			}//end if
+			throw e;
+		}//end try
+		return next;
+	}
+
+	/*
+	 * Locks the appointment row for the rest of the transaction and returns
+	 * its status, PA for elapsed dates.
+	 */
+	private String lockAppointment(ConnectionPool.PooledConnection pc, int appnt_ID) throws SQLException {
+		ResultSet rs = DBproject.bind(pc, Query.LOCK_APPOINTMENT, appnt_ID).executeQuery();
+		try{
+			if (!rs.next()) throw new IllegalStateException("Invalid Appointment ID " + appnt_ID);
+			return rs.getBoolean(2) ? "PA" : rs.getString(1);
+		}finally{
+			rs.close();
+		}
+	}
+
+	private int hospitalOf(ConnectionPool.PooledConnection pc, int doctor_id) throws SQLException {
+		int hid = this._esql.getReferenceCache().hospitalOfDoctor(pc, doctor_id);
+		if (hid < 0) throw new IllegalStateException("Invalid Doctor ID " + doctor_id);
+		return hid;
+	}
+
+	private int resolvePatient(ConnectionPool.PooledConnection pc, String name, String gender, int age, String address) throws SQLException {
+		return this._esql.getPatientResolver().resolve(pc, name, gender, age, address);
+	}
+
+	private static boolean exists(ConnectionPool.PooledConnection pc, Query query, Object... params) throws SQLException {
+		ResultSet rs = DBproject.bind(pc, query, params).executeQuery();
+		try{
+			return rs.next();
+		}finally{
+			rs.close();
+		}
+	}
+
+	/*
+	 * Returns the first column of the first row as an int, -1 for no row.
+	 */
+	private static int queryInt(ConnectionPool.PooledConnection pc, Query query, Object... params) throws SQLException {
+		PreparedStatement stmt = DBproject.bind(pc, query, params);
+		ResultSet rs = stmt.executeQuery();
+		try{
+			return rs.next() ? rs.getInt(1) : -1;
+		}finally{
+			rs.close();
+		}
+	}
+}//end BookingEngine
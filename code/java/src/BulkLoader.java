@@ -0,0 +1,479 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.FileInputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+/**
+ * This class reloads the CSV files of code/data (or any snapshot in the same
+ * layout) through COPY ... FROM STDIN, so the files only need to be readable
+ * by the client. Tables are loaded in foreign key order in one transaction.
+ *
+ * Each file goes through a bounded pipeline: a reader thread cuts it into
+ * batches of lines, a pool of parser threads normalizes them (M/D/YYYY dates
+ * to ISO, time slots to H:MM-H:MM) and checks every foreign key against the
+ * keys loaded so far, and the calling thread streams the parsed batches to
+ * the server in file order. Rows with a bad value, a dangling foreign key or
+ * a key an earlier row already has are skipped and reported instead of
+ * failing the COPY halfway.
+ *
+ * The archive tables of migration V007 are not in the snapshots and are left
+ * as they are, unless clearing them was asked for; appointment keys handed
+ * out after the load then also skip the archived ones.
+ *
+ */
+
+public class BulkLoader{
+	//relative to code/java, where run.sh starts the program
+	public static final String DEFAULT_DIR = "../data";
+
+	static final int PARSERS = Runtime.getRuntime().availableProcessors();
+	static final int BATCH_LINES = 8192;
+	//rejected rows printed per table
+	static final int MAX_ERRORS_SHOWN = 10;
+
+	//column kinds
+	static final char INT = 'I';
+	static final char TEXT = 'S';
+	static final char DATE = 'D';
+	static final char SLOT = 'T';
+	static final char STATUS = 'A';
+	static final char GENDER = 'G';
+
+	/*
+	 * Tables in load order. A column spec is name:kind, optionally followed
+	 * by :key for the table's integer key or :Table for a foreign key into
+	 * that table's key.
+	 */
+	static final Table[] TABLES = {
+		new Table("Hospital", "hospital.csv", "hospital_ID:I:key", "name:S"),
+		new Table("Patient", "patient.csv", "patient_ID:I:key", "name:S", "gtype:G", "age:I", "address:S", "number_of_appts:I"),
+		new Table("Department", "department.csv", "dept_ID:I:key", "name:S", "hid:I:Hospital"),
+		new Table("Staff", "staff.csv", "staff_ID:I:key", "name:S", "hid:I:Hospital"),
+		new Table("Doctor", "doctor.csv", "doctor_ID:I:key", "name:S", "specialty:S", "did:I:Department"),
+		new Table("Appointment", "appointment.csv", "appnt_ID:I:key", "adate:D", "time_slot:T", "status:A"),
+		new Table("request_maintenance", "request_maintenance.csv", "patient_per_hour:I", "dept_name:S", "time_slot:T", "did:I:Doctor", "sid:I:Staff"),
+		new Table("has_appointment", "has_appointment.csv", "appt_id:I:Appointment", "doctor_id:I:Doctor"),
+		new Table("schedules", "schedules.csv", "appt_id:I:Appointment", "staff_id:I:Staff"),
+		new Table("searches", "searches.csv", "hid:I:Hospital", "pid:I:Patient", "aid:I:Appointment"),
+	};
+
+	private final DBproject _esql;
+	private final File _dir;
+	//whether the archive is emptied as well
+	private final boolean _clearArchive;
+	//keys loaded per table, read by the parsers of later tables
+	private final Map<String, BitSet> _keys = new HashMap<String, BitSet>();
+
+	public BulkLoader(DBproject esql, File dir){
+		this(esql, dir, false);
+	}
+
+	/**
+	 * @param clearArchive whether to delete every archived appointment too
+	 */
+	public BulkLoader(DBproject esql, File dir, boolean clearArchive){
+		this._esql = esql;
+		this._dir = dir;
+		this._clearArchive = clearArchive;
+	}
+
+	/**
+	 * Method to replace the contents of every table with the files of the
+	 * data directory, all or nothing.
+	 *
+	 * @return the number of rows loaded
+	 * @throws java.sql.SQLException when the load failed and was rolled back
+	 */
+	public long load() throws SQLException {
+		final boolean archive = this._esql.getSchemaVersion() >= Archiver.ARCHIVE_VERSION;
+		final ExecutorService parsers = Executors.newFixedThreadPool(PARSERS);
+		try{
+			long rows = this._esql.inTransaction(new DBproject.Work<Long>(){
+				public Long run(ConnectionPool.PooledConnection pc) throws SQLException {
+					Statement stmt = pc.connection.createStatement();
+					try{
+						// the TRUNCATE notifies appointment_changed once instead of a notification per row
+						stmt.execute("SET LOCAL dbproject.feed = 'off'");
+						stmt.execute("TRUNCATE books, searches, schedules, has_appointment, request_maintenance, " +
+							"Appointment, Doctor, Staff, Department, Hospital, Patient CASCADE");
+						if (archive && _clearArchive) stmt.execute("TRUNCATE " + Archiver.ARCHIVE_TABLES);
+						long total = 0;
+						long start = System.nanoTime();
+						for (Table t : TABLES){
+							total += loadTable(pc, t, parsers);
+						}//end for
+						double secs = (System.nanoTime() - start) / 1e9;
+						System.out.printf("Loaded %d rows in %.2f s (%.0f rows/s)%n", total, secs, total / secs);
+						// keys handed out next must follow the loaded ones
+						stmt.execute("SELECT setval('doctor_id_seq', (SELECT COALESCE(MAX(doctor_ID), -1) + 1 FROM Doctor), false)");
+						stmt.execute("SELECT setval('patient_id_seq', (SELECT COALESCE(MAX(patient_ID), -1) + 1 FROM Patient), false)");
+						stmt.execute(archive ? "SELECT setval('appnt_id_seq', GREATEST((SELECT COALESCE(MAX(appnt_ID), -1) FROM Appointment), " +
+							"(SELECT COALESCE(MAX(appnt_ID), -1) FROM appointment_archive)) + 1, false)"
+							: "SELECT setval('appnt_id_seq', (SELECT COALESCE(MAX(appnt_ID), -1) + 1 FROM Appointment), false)");
+						stmt.execute("ANALYZE");
+						return total;
+					}catch (IOException e){
+						throw new SQLException("Unable to read the data files: " + e.getMessage(), e);
+					}finally{
+						stmt.close();
+					}
+				}
+			});
+			this._esql.getIdAllocator().reset();
+			this._esql.getReferenceCache().clear();
+			this._esql.getPatientResolver().clear();
+			return rows;
+		}finally{
+			parsers.shutdownNow();
+		}
+	}//end load
+
+	private long loadTable(ConnectionPool.PooledConnection pc, final Table t, final ExecutorService parsers) throws SQLException, IOException {
+		File file = new File(this._dir, t.file);
+		if (!file.exists()){
+			System.out.println(t.name + ": no " + file + ", left empty");
+			this._keys.put(t.name, new BitSet());
+			return 0;
+		}//end if
+		final BitSet[] parents = new BitSet[t.refs.length];
+		for (int c = 0; c < t.refs.length; ++c){
+			if (t.refs[c] != null) parents[c] = this._keys.get(t.refs[c]);
+		}//end for
+
+		final BlockingQueue<Future<Chunk>> pending = new ArrayBlockingQueue<Future<Chunk>>(2 * PARSERS);
+		final Future<Chunk> end = CompletableFuture.completedFuture(null);
+		final IOException[] readFailure = new IOException[1];
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), 1 << 16);
+		Thread readerThread = new Thread(new Runnable(){
+			public void run(){
+				try{
+					int lineNo = 0;
+					List<String> batch = new ArrayList<String>(BATCH_LINES);
+					String line;
+					while ((line = reader.readLine()) != null){
+						batch.add(line);
+						if (batch.size() == BATCH_LINES){
+							pending.put(parsers.submit(new Parse(t, parents, batch, lineNo)));
+							lineNo += batch.size();
+							batch = new ArrayList<String>(BATCH_LINES);
+						}//end if
+					}//end while
+					if (!batch.isEmpty()) pending.put(parsers.submit(new Parse(t, parents, batch, lineNo)));
+				}catch (IOException e){
+					readFailure[0] = e;
+				}catch (InterruptedException e){
+					// the load was abandoned.
+				}finally{
+					try{
+						reader.close();
+					}catch (IOException e){
+						// ignored.
+					}//end try
+					try{
+						pending.put(end);
+					}catch (InterruptedException e){
+						// the load was abandoned.
+					}//end try
+				}
+			}
+		}, "load-" + t.name);
+		readerThread.start();
+
+		BitSet keys = new BitSet();
+		long rows = 0;
+		long rejected = 0;
+		int shown = 0;
+		long start = System.nanoTime();
+		CopyIn copy = pc.connection.unwrap(PGConnection.class).getCopyAPI().copyIn(
+			"COPY " + t.name + " (" + t.columnList() + ") FROM STDIN WITH (FORMAT csv)");
+		try{
+			while (true){
+				Chunk chunk;
+				try{
+					chunk = pending.take().get();
+				}catch (InterruptedException e){
+					throw new SQLException("Interrupted loading " + t.name);
+				}catch (ExecutionException e){
+					throw new SQLException("Unable to parse " + t.file + ": " + e.getCause().getMessage(), e.getCause());
+				}//end try
+				if (chunk == null) break;
+				rows += chunk.rows - copyRows(copy, t, chunk, keys);
+				rejected += chunk.errors.size();
+				for (String error : chunk.errors){
+					if (shown++ < MAX_ERRORS_SHOWN) System.err.println(t.file + ":" + error);
+				}//end for
+			}//end while
+			if (readFailure[0] != null) throw readFailure[0];
+			copy.endCopy();
+		}finally{
+			if (copy.isActive()) copy.cancelCopy();
+			readerThread.interrupt();
+		}
+		this._keys.put(t.name, keys);
+		double secs = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%-20s %10d rows %6d rejected %8.2f s %12.0f rows/s%n", t.name, rows, rejected, secs, rows / Math.max(secs, 1e-9));
+		return rows;
+	}
+
+	/*
+	 * Streams the rows of a parsed batch, leaving out and reporting those
+	 * whose key an earlier row already has. Batches arrive in file order, so
+	 * the first row with a key is kept; a parser only sees its own batch and
+	 * cannot tell. Returns the number of rows left out.
+	 */
+	private static int copyRows(CopyIn copy, Table t, Chunk chunk, BitSet keys) throws SQLException {
+		if (t.key < 0){
+			if (chunk.length > 0) copy.writeToCopy(chunk.data, 0, chunk.length);
+			return 0;
+		}//end if
+		int duplicates = 0;
+		int from = 0;
+		int at = 0;
+		for (int i = 0; i < chunk.keyCount; ++i){
+			// one row per line, and UTF-8 never has a newline byte inside a character
+			int next = at;
+			while (chunk.data[next] != '\n') ++next;
+			++next;
+			if (keys.get(chunk.keys[i])){
+				if (at > from) copy.writeToCopy(chunk.data, from, at - from);
+				from = next;
+				++duplicates;
+				chunk.errors.add(chunk.keyLines[i] + ": " + t.columns[t.key] + " " + chunk.keys[i] + " is already loaded");
+			}else{
+				keys.set(chunk.keys[i]);
+			}//end if
+			at = next;
+		}//end for
+		if (chunk.length > from) copy.writeToCopy(chunk.data, from, chunk.length - from);
+		return duplicates;
+	}
+
+	/*
+	 * Normalizes one batch of lines into COPY csv text.
+	 */
+	private static class Parse implements Callable<Chunk>{
+		private final Table _t;
+		private final BitSet[] _parents;
+		private final List<String> _lines;
+		private final int _firstLine;
+
+		Parse(Table t, BitSet[] parents, List<String> lines, int firstLine){
+			this._t = t;
+			this._parents = parents;
+			this._lines = lines;
+			this._firstLine = firstLine;
+		}
+
+		public Chunk call(){
+			Chunk chunk = new Chunk(this._lines.size());
+			StringBuilder out = new StringBuilder(this._lines.size() * 48);
+			StringBuilder row = new StringBuilder(64);
+			String[] fields = new String[this._t.columns.length];
+			for (int n = 0; n < this._lines.size(); ++n){
+				String line = this._lines.get(n);
+				if (line.isEmpty()) continue;
+				row.setLength(0);
+				String error = parseRow(line, fields, row);
+				if (error == null){
+					out.append(row).append('\n');
+					++chunk.rows;
+					if (this._t.key >= 0){
+						chunk.keyLines[chunk.keyCount] = this._firstLine + n + 1;
+						chunk.keys[chunk.keyCount++] = Integer.parseInt(fields[this._t.key]);
+					}//end if
+				}else{
+					chunk.errors.add((this._firstLine + n + 1) + ": " + error);
+				}//end if
+			}//end for
+			chunk.data = out.toString().getBytes(StandardCharsets.UTF_8);
+			chunk.length = chunk.data.length;
+			return chunk;
+		}
+
+		private String parseRow(String line, String[] fields, StringBuilder row){
+			int numCol = this._t.columns.length;
+			int from = 0;
+			for (int c = 0; c < numCol; ++c){
+				int comma = line.indexOf(',', from);
+				if (c == numCol - 1){
+					if (comma >= 0) return "expected " + numCol + " fields";
+					comma = line.length();
+				}else if (comma < 0){
+					return "expected " + numCol + " fields";
+				}//end if
+				fields[c] = line.substring(from, comma).trim();
+				from = comma + 1;
+			}//end for
+			for (int c = 0; c < numCol; ++c){
+				String v = fields[c];
+				if (c > 0) row.append(',');
+				if (v.isEmpty()){
+					if (this._t.refs[c] != null || c == this._t.key) return this._t.columns[c] + " is empty";
+					continue;
+				}//end if
+				switch (this._t.kinds[c]){
+					case INT:
+						int n;
+						try{
+							n = Integer.parseInt(v);
+						}catch (NumberFormatException e){
+							return this._t.columns[c] + " is not an integer: " + v;
+						}//end try
+						if (this._parents[c] != null && (n < 0 || !this._parents[c].get(n))){
+							return this._t.columns[c] + " " + n + " is not a loaded " + this._t.refs[c];
+						}//end if
+						if (c == this._t.key && n < 0) return this._t.columns[c] + " is negative";
+						row.append(n);
+						break;
+					case DATE:
+						if (!appendIsoDate(v, row)) return this._t.columns[c] + " is not a date: " + v;
+						break;
+					case SLOT:
+						int slot = TimeSlot.parse(v);
+						if (slot == TimeSlot.INVALID) return this._t.columns[c] + " is not a time slot: " + v;
+						TimeSlot.appendTime(row, TimeSlot.start(slot));
+						row.append('-');
+						TimeSlot.appendTime(row, TimeSlot.end(slot));
+						break;
+					case STATUS:
+						if (!(v.equals("PA") || v.equals("AC") || v.equals("AV") || v.equals("WL"))) return this._t.columns[c] + " is not a status: " + v;
+						row.append(v);
+						break;
+					case GENDER:
+						if (!(v.equals("M") || v.equals("F"))) return this._t.columns[c] + " is not M or F: " + v;
+						row.append(v);
+						break;
+					default:
+						appendCsv(v, row);
+				}//end switch
+			}//end for
+			return null;
+		}
+	}
+
+	/*
+	 * Appends M/D/YYYY or YYYY-MM-DD as YYYY-MM-DD, false if it is neither.
+	 */
+	static boolean appendIsoDate(String v, StringBuilder row){
+		int y, m, d;
+		int s1 = v.indexOf('/');
+		try{
+			if (s1 > 0){
+				int s2 = v.indexOf('/', s1 + 1);
+				if (s2 < 0) return false;
+				m = Integer.parseInt(v.substring(0, s1));
+				d = Integer.parseInt(v.substring(s1 + 1, s2));
+				y = Integer.parseInt(v.substring(s2 + 1));
+			}else if (v.length() == 10 && v.charAt(4) == '-' && v.charAt(7) == '-'){
+				y = Integer.parseInt(v.substring(0, 4));
+				m = Integer.parseInt(v.substring(5, 7));
+				d = Integer.parseInt(v.substring(8, 10));
+			}else{
+				return false;
+			}//end if
+		}catch (NumberFormatException e){
+			return false;
+		}//end try
+		if (y < 1000 || y > 9999 || m < 1 || m > 12 || d < 1 || d > 31) return false;
+		row.append(y).append('-');
+		if (m < 10) row.append('0');
+		row.append(m).append('-');
+		if (d < 10) row.append('0');
+		row.append(d);
+		return true;
+	}
+
+	static void appendCsv(String v, StringBuilder row){
+		boolean quote = false;
+		for (int i = 0; i < v.length() && !quote; ++i){
+			char ch = v.charAt(i);
+			quote = ch == ',' || ch == '"' || ch == '\n' || ch == '\r';
+		}//end for
+		if (!quote){
+			row.append(v);
+			return;
+		}//end if
+		row.append('"');
+		for (int i = 0; i < v.length(); ++i){
+			char ch = v.charAt(i);
+			if (ch == '"') row.append('"');
+			row.append(ch);
+		}//end for
+		row.append('"');
+	}
+
+	private static class Chunk{
+		byte[] data;
+		int length;
+		int rows;
+		final int[] keys;
+		//line number of the row of each key
+		final int[] keyLines;
+		int keyCount;
+		final List<String> errors = new ArrayList<String>();
+
+		Chunk(int lines){
+			this.keys = new int[lines];
+			this.keyLines = new int[lines];
+		}
+	}
+
+	static class Table{
+		final String name;
+		final String file;
+		final String[] columns;
+		final char[] kinds;
+		//parent table per column, null when not a foreign key
+		final String[] refs;
+		//index of the key column, -1 when the table has no single integer key
+		final int key;
+
+		Table(String name, String file, String... specs){
+			this.name = name;
+			this.file = file;
+			this.columns = new String[specs.length];
+			this.kinds = new char[specs.length];
+			this.refs = new String[specs.length];
+			int key = -1;
+			for (int c = 0; c < specs.length; ++c){
+				String[] parts = specs[c].split(":");
+				this.columns[c] = parts[0];
+				this.kinds[c] = parts[1].charAt(0);
+				if (parts.length > 2){
+					if (parts[2].equals("key")) key = c;
+					else this.refs[c] = parts[2];
+				}//end if
+			}//end for
+			this.key = key;
+		}
+
+		String columnList(){
+			StringBuilder sb = new StringBuilder();
+			for (int c = 0; c < this.columns.length; ++c){
+				if (c > 0) sb.append(", ");
+				sb.append(this.columns[c]);
+			}//end for
+			return sb.toString();
+		}
+	}
+}//end BulkLoader
@@ -0,0 +1,276 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * This class listens to Postgres notification channels on one connection of
+ * its own and hands each notification to the subscribers of its channel, on
+ * the listener thread. ReferenceCache subscribes to reference_changed of
+ * migration V004; front ends and caches showing appointments subscribe to
+ * the typed events of appointment_changed, which the triggers of migration
+ * V008 send when an appointment is added, removed, moved or changes status,
+ * and when a doctor is linked to or unlinked from one.
+ *
+ * Notifications sent while the connection was down are lost, so after every
+ * (re)connect subscribers are told to start over.
+ *
+ */
+
+public class ChangeFeed{
+	public static final String APPOINTMENT_CHANNEL = "appointment_changed";
+	//how often the listener asks the server for notifications, overridable with -Ddbproject.feed.pollMs=...
+	static final long POLL_INTERVAL = Long.getLong("dbproject.feed.pollMs", 500L);
+
+	/**
+	 * Receives the payloads of one channel.
+	 */
+	public interface Subscriber{
+		void notified(String payload);
+
+		//notifications may have been missed, e.g. after a reconnect
+		void reset();
+	}
+
+	/**
+	 * One change of the appointment_changed channel.
+	 */
+	public static final class AppointmentChange{
+		public enum Kind { STATUS, LINK, RESET }
+
+		public final Kind kind;
+		public final int appnt_ID;
+		//STATUS: date after the change, or before a delete
+		public final LocalDate adate;
+		//STATUS: null before an insert and after a delete
+		public final String oldStatus;
+		public final String newStatus;
+		//LINK: the doctor linked or unlinked
+		public final int doctor_id;
+		public final boolean linked;
+
+		AppointmentChange(Kind kind, int appnt_ID, LocalDate adate, String oldStatus, String newStatus, int doctor_id, boolean linked){
+			this.kind = kind;
+			this.appnt_ID = appnt_ID;
+			this.adate = adate;
+			this.oldStatus = oldStatus;
+			this.newStatus = newStatus;
+			this.doctor_id = doctor_id;
+			this.linked = linked;
+		}
+
+		static final AppointmentChange RESET = new AppointmentChange(Kind.RESET, -1, null, null, null, -1, false);
+
+		/*
+		 * Payloads are s:id:date:old:new with empty statuses for none,
+		 * l:id:doctor:1 or l:id:doctor:0, or * after a TRUNCATE.
+		 */
+		static AppointmentChange parse(String payload){
+			String[] f = payload.split(":", -1);
+			if (f[0].equals("s") && f.length == 5){
+				return new AppointmentChange(Kind.STATUS, Integer.parseInt(f[1]), LocalDate.parse(f[2]),
+					f[3].isEmpty() ? null : f[3], f[4].isEmpty() ? null : f[4], -1, false);
+			}//end if
+			if (f[0].equals("l") && f.length == 4){
+				return new AppointmentChange(Kind.LINK, Integer.parseInt(f[1]), null, null, null, Integer.parseInt(f[2]), f[3].equals("1"));
+			}//end if
+			return RESET;
+		}
+
+		public String toString(){
+			switch (this.kind){
+				case STATUS:
+					return "STATUS\t" + this.appnt_ID + "\t" + this.adate + "\t" + this.oldStatus + "\t" + this.newStatus;
+				case LINK:
+					return "LINK\t" + this.appnt_ID + "\t" + this.doctor_id + "\t" + (this.linked ? "+" : "-");
+				default:
+					return "RESET";
+			}//end switch
+		}
+	}
+
+	/**
+	 * Receives appointment changes, RESET ones when everything may have
+	 * changed.
+	 */
+	public interface AppointmentListener{
+		void changed(AppointmentChange change);
+	}
+
+	private final ConnectionPool _pool;
+	private final Map<String, List<Subscriber>> _subscribers = new HashMap<String, List<Subscriber>>();
+	private Thread _listener;
+	private volatile Connection _listenConnection;
+	//channels subscribed since the listener last ran LISTEN, guarded by _subscribers
+	private final List<String> _newChannels = new ArrayList<String>();
+	private volatile boolean _closed = false;
+
+	public ChangeFeed(ConnectionPool pool){
+		this._pool = pool;
+	}
+
+	/**
+	 * Method to receive the notifications of a channel.
+	 */
+	public void subscribe(String channel, Subscriber subscriber){
+		synchronized (this._subscribers){
+			List<Subscriber> list = this._subscribers.get(channel);
+			if (list == null){
+				list = new CopyOnWriteArrayList<Subscriber>();
+				this._subscribers.put(channel, list);
+				this._newChannels.add(channel);
+			}//end if
+			list.add(subscriber);
+		}
+	}
+
+	public void unsubscribe(String channel, Subscriber subscriber){
+		synchronized (this._subscribers){
+			List<Subscriber> list = this._subscribers.get(channel);
+			if (list != null) list.remove(subscriber);
+		}
+	}
+
+	/**
+	 * Method to receive the typed changes of appointment_changed.
+	 *
+	 * @return the subscription, to pass to unsubscribe
+	 */
+	public Subscriber subscribeAppointments(final AppointmentListener listener){
+		Subscriber subscriber = new Subscriber(){
+			public void notified(String payload){
+				AppointmentChange change;
+				try{
+					change = AppointmentChange.parse(payload);
+				}catch (RuntimeException e){
+					change = AppointmentChange.RESET;
+				}//end try
+				listener.changed(change);
+			}
+			public void reset(){
+				listener.changed(AppointmentChange.RESET);
+			}
+		};
+		subscribe(APPOINTMENT_CHANNEL, subscriber);
+		return subscriber;
+	}
+
+	/**
+	 * Method to start the listener thread.
+	 */
+	public synchronized void start(){
+		if (this._listener != null) return;
+		this._listener = new Thread(new Runnable(){
+			public void run(){ listen(); }
+		}, "change-feed-listener");
+		this._listener.setDaemon(true);
+		this._listener.start();
+	}
+
+	private void listen(){
+		while (!this._closed){
+			Connection conn = null;
+			try{
+				conn = this._pool.openUnpooled();
+				this._listenConnection = conn;
+				Statement stmt = conn.createStatement();
+				List<String> channels;
+				synchronized (this._subscribers){
+					this._newChannels.clear();
+					channels = new ArrayList<String>(this._subscribers.keySet());
+				}
+				for (String channel : channels){
+					stmt.execute("LISTEN " + channel);
+				}//end for
+				// changes made while not listening were missed
+				for (String channel : channels){
+					for (Subscriber s : subscribers(channel)){
+						deliver(s, null);
+					}//end for
+				}//end for
+				PGConnection pg = conn.unwrap(PGConnection.class);
+				while (!this._closed){
+					// a new channel only needs its LISTEN on this connection, the others missed nothing
+					List<String> added;
+					synchronized (this._subscribers){
+						added = new ArrayList<String>(this._newChannels);
+						this._newChannels.clear();
+					}
+					for (String channel : added){
+						stmt.execute("LISTEN " + channel);
+					}//end for
+					// the driver only reads notifications off the socket while running a statement
+					stmt.execute("SELECT 1");
+					PGNotification[] notifications = pg.getNotifications();
+					if (notifications != null){
+						for (PGNotification n : notifications){
+							for (Subscriber s : subscribers(n.getName())){
+								deliver(s, n.getParameter());
+							}//end for
+						}//end for
+					}//end if
+					Thread.sleep(POLL_INTERVAL);
+				}//end while
+			}catch (InterruptedException e){
+				break;
+			}catch (SQLException e){
+				if (this._closed) break;
+				System.err.println("Change feed listener: " + e.getMessage());
+				try{
+					Thread.sleep(POLL_INTERVAL);
+				}catch (InterruptedException e2){
+					break;
+				}//end try
+			}finally{
+				this._listenConnection = null;
+				closeQuietly(conn);
+			}
+		}//end while
+	}//end listen
+
+	private List<Subscriber> subscribers(String channel){
+		synchronized (this._subscribers){
+			List<Subscriber> list = this._subscribers.get(channel);
+			return list == null ? new ArrayList<Subscriber>() : list;
+		}
+	}
+
+	/*
+	 * A null payload resets the subscriber. A failing subscriber does not
+	 * stop the others.
+	 */
+	private static void deliver(Subscriber s, String payload){
+		try{
+			if (payload == null) s.reset();
+			else s.notified(payload);
+		}catch (RuntimeException e){
+			System.err.println("Change feed subscriber failed: " + e);
+		}//end try
+	}
+
+	private static void closeQuietly(Connection conn){
+		if (conn == null) return;
+		try{
+			conn.close();
+		}catch (SQLException e){
+			// already broken
+		}//end try
+	}
+
+	/**
+	 * Method to stop the listener and close its connection.
+	 */
+	public synchronized void close(){
+		this._closed = true;
+		if (this._listener != null) this._listener.interrupt();
+		closeQuietly(this._listenConnection);
+	}
+}//end ChangeFeed
@@ -0,0 +1,302 @@
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * This class holds a query result column by column in primitive arrays
+ * instead of one String per cell. Integer columns are kept as int[], dates as
+ * int[] epoch days and _STATUS values as one byte code each; only other text
+ * columns keep their Strings. A String is built for a cell only when it is
+ * asked for, e.g. through the List<List<String>> view of asLists().
+ *
+ * The driver reports a _STATUS column as its base type, so a text column
+ * labelled status is taken for one too. Such a column is kept as codes only
+ * while every value is a status; the first other value turns it back into
+ * an ordinary text column.
+ *
+ */
+
+public class ColumnarResult{
+	//column kinds
+	static final byte INT = 0;
+	static final byte DATE = 1;
+	static final byte STATUS = 2;
+	static final byte TEXT = 3;
+
+	//_STATUS domain of create.sql, the code of a status is its index
+	public static final String[] STATUSES = {"PA", "AC", "AV", "WL"};
+	public static final byte PA = 0;
+	public static final byte AC = 1;
+	public static final byte AV = 2;
+	public static final byte WL = 3;
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final String[] _names;
+	//STATUS columns may turn TEXT while reading
+	private final byte[] _kinds;
+	//one array per column: int[] for INT and DATE, byte[] for STATUS, String[] for TEXT
+	private final Object[] _columns;
+	//set bits mark SQL NULL cells of INT, DATE and STATUS columns
+	private final BitSet[] _nulls;
+	private int _rows = 0;
+	private int _capacity = INITIAL_CAPACITY;
+	//size of the values read, as the server sends them
+	private long _bytes = 0;
+
+	private ColumnarResult(String[] names, byte[] kinds){
+		this._names = names;
+		this._kinds = kinds;
+		this._columns = new Object[kinds.length];
+		this._nulls = new BitSet[kinds.length];
+		for (int c = 0; c < kinds.length; ++c){
+			this._columns[c] = allocate(kinds[c], this._capacity);
+			this._nulls[c] = new BitSet();
+		}//end for
+	}
+
+	/**
+	 * Method to read every row of a result set. The result set is left open.
+	 *
+	 * @param rs the result set, positioned before the first row
+	 * @return the rows in columnar form
+	 * @throws java.sql.SQLException when failed to read the result set
+	 */
+	public static ColumnarResult read(ResultSet rs) throws SQLException {
+		ResultSetMetaData rsmd = rs.getMetaData();
+		int numCol = rsmd.getColumnCount();
+		String[] names = new String[numCol];
+		byte[] kinds = new byte[numCol];
+		for (int i = 1; i <= numCol; ++i){
+			names[i - 1] = rsmd.getColumnLabel(i);
+			kinds[i - 1] = kindOf(rsmd, i);
+		}//end for
+		ColumnarResult result = new ColumnarResult(names, kinds);
+		while (rs.next()){
+			result.append(rs);
+		}//end while
+		return result;
+	}//end read
+
+	private static byte kindOf(ResultSetMetaData rsmd, int i) throws SQLException {
+		switch (rsmd.getColumnType(i)){
+			case Types.INTEGER:
+			case Types.SMALLINT:
+			case Types.TINYINT:
+				return INT;
+			case Types.DATE:
+				return DATE;
+			case Types.CHAR:
+			case Types.VARCHAR:
+				// domain columns report their base type, so _STATUS is told apart by name
+				String type = rsmd.getColumnTypeName(i);
+				if ("_status".equalsIgnoreCase(type) || "status".equalsIgnoreCase(rsmd.getColumnLabel(i))) return STATUS;
+				return TEXT;
+			default:
+				return TEXT;
+		}//end switch
+	}
+
+	private void append(ResultSet rs) throws SQLException {
+		if (this._rows == this._capacity) grow();
+		int r = this._rows;
+		for (int c = 0; c < this._kinds.length; ++c){
+			switch (this._kinds[c]){
+				case INT:{
+					int v = rs.getInt(c + 1);
+					if (rs.wasNull()) this._nulls[c].set(r);
+					((int[]) this._columns[c])[r] = v;
+					this._bytes += 4;
+					break;
+				}
+				case DATE:{
+					java.sql.Date d = rs.getDate(c + 1);
+					if (d == null) this._nulls[c].set(r);
+					else ((int[]) this._columns[c])[r] = (int) d.toLocalDate().toEpochDay();
+					this._bytes += 10;
+					break;
+				}
+				case STATUS:{
+					String s = rs.getString(c + 1);
+					byte code = code(s);
+					if (s != null && code < 0){
+						// not a _STATUS column after all
+						toText(c);
+						((String[]) this._columns[c])[r] = s;
+						this._bytes += s.length();
+						break;
+					}//end if
+					if (s == null) this._nulls[c].set(r);
+					else ((byte[]) this._columns[c])[r] = code;
+					this._bytes += 2;
+					break;
+				}
+				default:{
+					String s = rs.getString(c + 1);
+					((String[]) this._columns[c])[r] = s;
+					if (s != null) this._bytes += s.length();
+				}
+			}//end switch
+		}//end for
+		++this._rows;
+	}
+
+	/*
+	 * Turns the codes read so far of a STATUS column into Strings.
+	 */
+	private void toText(int c){
+		byte[] codes = (byte[]) this._columns[c];
+		String[] values = new String[this._capacity];
+		for (int r = 0; r < this._rows; ++r){
+			if (!this._nulls[c].get(r)) values[r] = STATUSES[codes[r]];
+		}//end for
+		this._columns[c] = values;
+		this._nulls[c].clear();
+		this._kinds[c] = TEXT;
+	}
+
+	private void grow(){
+		this._capacity *= 2;
+		for (int c = 0; c < this._kinds.length; ++c){
+			Object col = this._columns[c];
+			if (col instanceof int[]) this._columns[c] = Arrays.copyOf((int[]) col, this._capacity);
+			else if (col instanceof byte[]) this._columns[c] = Arrays.copyOf((byte[]) col, this._capacity);
+			else this._columns[c] = Arrays.copyOf((String[]) col, this._capacity);
+		}//end for
+	}
+
+	private static Object allocate(byte kind, int capacity){
+		switch (kind){
+			case INT:
+			case DATE:
+				return new int[capacity];
+			case STATUS:
+				return new byte[capacity];
+			default:
+				return new String[capacity];
+		}//end switch
+	}
+
+	/**
+	 * Method to encode a _STATUS value.
+	 *
+	 * @param status one of PA, AC, AV, WL
+	 * @return the status code
+	 */
+	public static byte statusCode(String status){
+		byte code = code(status);
+		if (code < 0) throw new IllegalArgumentException("Unknown appointment status: " + status);
+		return code;
+	}
+
+	//-1 for anything but a status
+	private static byte code(String status){
+		for (byte i = 0; i < STATUSES.length; ++i){
+			if (STATUSES[i].equals(status)) return i;
+		}//end for
+		return -1;
+	}
+
+	/**
+	 * @return the approximate size in bytes of the values fetched
+	 */
+	public long bytes(){
+		return this._bytes;
+	}
+
+	public int rowCount(){
+		return this._rows;
+	}
+
+	public int columnCount(){
+		return this._names.length;
+	}
+
+	public String columnName(int col){
+		return this._names[col];
+	}
+
+	public boolean isNull(int row, int col){
+		if (this._kinds[col] == TEXT) return ((String[]) this._columns[col])[row] == null;
+		return this._nulls[col].get(row);
+	}
+
+	/**
+	 * @return the value of an integer cell, 0 for NULL
+	 */
+	public int getInt(int row, int col){
+		check(row, col, INT);
+		return ((int[]) this._columns[col])[row];
+	}
+
+	/**
+	 * @return the value of a date cell as days since 1970-01-01, 0 for NULL
+	 */
+	public int getEpochDay(int row, int col){
+		check(row, col, DATE);
+		return ((int[]) this._columns[col])[row];
+	}
+
+	public LocalDate getDate(int row, int col){
+		return isNull(row, col) ? null : LocalDate.ofEpochDay(getEpochDay(row, col));
+	}
+
+	/**
+	 * @return the code of a status cell (PA, AC, AV or WL), -1 for NULL
+	 */
+	public byte getStatus(int row, int col){
+		check(row, col, STATUS);
+		return isNull(row, col) ? -1 : ((byte[]) this._columns[col])[row];
+	}
+
+	/**
+	 * Method to build the String of any cell, as ResultSet.getString would
+	 * have returned it.
+	 *
+	 * @return the cell value, null for NULL
+	 */
+	public String getString(int row, int col){
+		if (isNull(row, col)) return null;
+		switch (this._kinds[col]){
+			case INT:
+				return Integer.toString(getInt(row, col));
+			case DATE:
+				return getDate(row, col).toString();
+			case STATUS:
+				return STATUSES[getStatus(row, col)];
+			default:
+				return ((String[]) this._columns[col])[row];
+		}//end switch
+	}
+
+	/**
+	 * Method to view the rows as a list of records, each a list of attribute
+	 * values, like executeQueryAndReturnResult always returned. Cells are
+	 * turned into Strings when read; the view is read only.
+	 *
+	 * @return the read-only view
+	 */
+	public List<List<String>> asLists(){
+		return new AbstractList<List<String>>(){
+			public int size(){ return _rows; }
+			public List<String> get(final int row){
+				if (row < 0 || row >= _rows) throw new IndexOutOfBoundsException("row " + row);
+				return new AbstractList<String>(){
+					public int size(){ return _names.length; }
+					public String get(int col){ return getString(row, col); }
+				};
+			}
+		};
+	}
+
+	private void check(int row, int col, byte kind){
+		if (row < 0 || row >= this._rows) throw new IndexOutOfBoundsException("row " + row);
+		if (this._kinds[col] != kind) throw new IllegalArgumentException("column " + this._names[col] + " is not of the requested type");
+	}
+}//end ColumnarResult
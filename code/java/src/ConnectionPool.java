@@ -0,0 +1,274 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class keeps a bounded set of physical connections to the database and
+ * lends them out one operation at a time. Idle connections are validated
+ * before reuse and closed by a background evictor once they sit unused for
+ * longer than the idle timeout. Callers that find every connection busy wait
+ * up to the acquisition timeout; wait times are recorded for stats().
+ *
+ */
+
+public class ConnectionPool{
+	//seconds a validity check may take before the connection is dropped
+	private static final int VALIDATION_TIMEOUT = 2;
+	//idle connections younger than this are reused without a validity check
+	private static final long VALIDATION_INTERVAL = TimeUnit.SECONDS.toNanos(30);
+
+	private final String _url;
+	private final String _user;
+	private final String _passwd;
+	private final int _maxSize;
+	private final long _acquireTimeout;
+	private final long _idleTimeout;
+
+	//connections ready to be lent, most recently returned first
+	private final ArrayDeque<PooledConnection> _idle = new ArrayDeque<PooledConnection>();
+	//connections open right now, lent or idle
+	private int _open = 0;
+	private boolean _closed = false;
+	private final ScheduledExecutorService _evictor;
+
+	//acquisition metrics
+	private final AtomicLong _acquired = new AtomicLong();
+	private final AtomicLong _timeouts = new AtomicLong();
+	private final AtomicLong _waitNanos = new AtomicLong();
+	private final AtomicLong _maxWaitNanos = new AtomicLong();
+
+	/**
+	 * @param url the connection URL
+	 * @param user the database user
+	 * @param passwd the database password
+	 * @param maxSize most connections open at once
+	 * @param acquireTimeout milliseconds acquire() waits for a free connection
+	 * @param idleTimeout milliseconds an idle connection is kept open
+	 */
+	public ConnectionPool(String url, String user, String passwd, int maxSize, long acquireTimeout, long idleTimeout){
+		this._url = url;
+		this._user = user;
+		this._passwd = passwd;
+		this._maxSize = maxSize;
+		this._acquireTimeout = TimeUnit.MILLISECONDS.toNanos(acquireTimeout);
+		this._idleTimeout = TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+		this._evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+			public Thread newThread(Runnable r){
+				Thread t = new Thread(r, "pool-evictor");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		long period = Math.max(1000, idleTimeout / 2);
+		this._evictor.scheduleWithFixedDelay(new Runnable(){
+			public void run(){ evictIdle(); }
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Method to borrow a connection, opening a new one while the pool is
+	 * below its maximum size. Must be given back with release().
+	 *
+	 * @return a valid connection
+	 * @throws java.sql.SQLException when no connection became free in time or
+	 * a new connection could not be opened
+	 */
+	public PooledConnection acquire() throws SQLException {
+		long start = System.nanoTime();
+		long deadline = start + this._acquireTimeout;
+		PooledConnection pc = null;
+		boolean create = false;
+		while (pc == null && !create){
+			synchronized (this){
+				while (pc == null && !create){
+					if (this._closed) throw new SQLException("Connection pool is closed");
+					pc = this._idle.pollFirst();
+					if (pc == null){
+						if (this._open < this._maxSize){
+							++this._open;
+							create = true;
+						}else{
+							long left = deadline - System.nanoTime();
+							if (left <= 0){
+								this._timeouts.incrementAndGet();
+								throw new SQLException("Timed out waiting for a database connection (" + this._maxSize + " in use)");
+							}//end if
+							try{
+								TimeUnit.NANOSECONDS.timedWait(this, left);
+							}catch (InterruptedException e){
+								Thread.currentThread().interrupt();
+								throw new SQLException("Interrupted waiting for a database connection");
+							}//end try
+						}//end if
+					}//end if
+				}//end while
+			}
+			// validating is a round trip, so it runs outside the lock while others acquire and release
+			if (pc != null && !isValid(pc)){
+				discard(pc);
+				pc = null;
+			}//end if
+		}//end while
+		if (create){
+			try{
+				Connection conn = DriverManager.getConnection(this._url, this._user, this._passwd);
+				pc = new PooledConnection(conn);
+			}catch (SQLException e){
+				synchronized (this){
+					--this._open;
+					notifyAll();
+				}
+				throw e;
+			}//end try
+		}//end if
+		recordWait(System.nanoTime() - start);
+		return pc;
+	}//end acquire
+
+	/**
+	 * Method to give a borrowed connection back. Connections left in a
+	 * transaction or broken are closed instead of reused.
+	 *
+	 * @param pc the connection returned by acquire()
+	 */
+	public void release(PooledConnection pc){
+		boolean reuse;
+		try{
+			reuse = !pc.connection.isClosed() && pc.connection.getAutoCommit();
+		}catch (SQLException e){
+			reuse = false;
+		}//end try
+		synchronized (this){
+			if (reuse && !this._closed){
+				pc.lastUsed = System.nanoTime();
+				this._idle.addFirst(pc);
+				notifyAll();
+				return;
+			}//end if
+		}
+		discard(pc);
+	}//end release
+
+	/**
+	 * Method to report acquisition metrics of the pool.
+	 *
+	 * @return a one line summary
+	 */
+	public synchronized String stats(){
+		long n = this._acquired.get();
+		return String.format("pool open=%d idle=%d max=%d acquired=%d timeouts=%d avgWaitMs=%.3f maxWaitMs=%.3f",
+			this._open, this._idle.size(), this._maxSize, n, this._timeouts.get(),
+			n == 0 ? 0.0 : this._waitNanos.get() / 1e6 / n, this._maxWaitNanos.get() / 1e6);
+	}
+
+	public int getMaxSize(){
+		return this._maxSize;
+	}
+
+	/**
+	 * Method to open a connection to the same database outside the pool,
+	 * for sessions held for the life of the program such as LISTEN. It does
+	 * not count against the pool size and the caller closes it.
+	 */
+	public Connection openUnpooled() throws SQLException {
+		return DriverManager.getConnection(this._url, this._user, this._passwd);
+	}
+
+	/**
+	 * Method to close every idle connection and stop lending. Connections
+	 * still lent out are closed when they are released.
+	 */
+	public void close(){
+		List<PooledConnection> idle;
+		synchronized (this){
+			this._closed = true;
+			this._evictor.shutdownNow();
+			idle = new ArrayList<PooledConnection>(this._idle);
+			this._idle.clear();
+		}
+		for (PooledConnection pc : idle){
+			discard(pc);
+		}//end for
+	}//end close
+
+	private void evictIdle(){
+		List<PooledConnection> expired = new ArrayList<PooledConnection>();
+		synchronized (this){
+			long now = System.nanoTime();
+			Iterator<PooledConnection> it = this._idle.iterator();
+			while (it.hasNext()){
+				PooledConnection pc = it.next();
+				if (now - pc.lastUsed > this._idleTimeout){
+					it.remove();
+					expired.add(pc);
+				}//end if
+			}//end while
+		}
+		for (PooledConnection pc : expired){
+			discard(pc);
+		}//end for
+	}
+
+	private boolean isValid(PooledConnection pc){
+		if (System.nanoTime() - pc.lastUsed < VALIDATION_INTERVAL) return true;
+		try{
+			return pc.connection.isValid(VALIDATION_TIMEOUT);
+		}catch (SQLException e){
+			return false;
+		}//end try
+	}
+
+	/*
+	 * Closes a connection taken off the pool, outside the lock since closing
+	 * a socket may block, then frees its place.
+	 */
+	private void discard(PooledConnection pc){
+		pc.close();
+		synchronized (this){
+			--this._open;
+			notifyAll();
+		}
+	}
+
+	private void recordWait(long nanos){
+		this._acquired.incrementAndGet();
+		this._waitNanos.addAndGet(nanos);
+		long max;
+		while (nanos > (max = this._maxWaitNanos.get())){
+			if (this._maxWaitNanos.compareAndSet(max, nanos)) break;
+		}//end while
+	}
+
+	/**
+	 * A physical connection of the pool together with its open prepared
+	 * statements.
+	 */
+	public static class PooledConnection{
+		public final Connection connection;
+		public final StatementCache statements;
+		long lastUsed = System.nanoTime();
+
+		PooledConnection(Connection connection){
+			this.connection = connection;
+			this.statements = new StatementCache(connection, StatementCache.DEFAULT_CAPACITY);
+		}
+
+		void close(){
+			this.statements.close();
+			try{
+				this.connection.close();
+			}catch (SQLException e){
+				// ignored.
+			}//end try
+		}
+	}
+}//end ConnectionPool
@@ -0,0 +1,321 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * This class runs DBproject headless: it listens on a local socket and serves
+ * many client sessions at once, each on its own thread, all sharing the
+ * connection pool of one DBproject. The protocol is line based, one request
+ * per line with tab separated fields:
+ *
+ *   ADD_DOCTOR        name specialty dept_id          -> OK id
+ *   COPY_DOCTOR       doctor_id                       -> OK
+ *   ADD_PATIENT       name gender age address [hospital_id] -> OK id
+ *   ADD_APPOINTMENT   date time_slot [doctor_id]      -> OK id
+ *   OPEN_SLOTS        doctor_id weekdays(Mon-Fri) slots(8:00-10:00,...) first_date last_date -> OK count
+ *   OPEN_DEPARTMENT_SLOTS dept_id weekdays slots first_date last_date -> OK count
+ *   MAKE_APPOINTMENT  name gender age address doctor_id appt_id -> OK status
+ *   BOOK_NEXT         patient_id doctor_id date       -> OK appt_id or -1
+ *   CANCEL_APPOINTMENT patient_id appt_id [doctor_id] -> OK status
+ *   LIST_DOCTOR       doctor_id begin_date end_date   -> rows, OK count
+ *   LIST_DEPARTMENT   dept_name date                  -> rows, OK count
+ *   FREE_SLOTS        dept_name date window(H:MM-H:MM) -> rows, OK count
+ *   STATUS_COUNTS                                     -> rows, OK count
+ *   PATIENTS_WITH_STATUS status(PA|AC|AV|WL)          -> rows, OK count
+ *   STATS                                             -> OK pool, cache, patient and search log stats
+ *   METRICS                                           -> rows, OK count
+ *   WATCH                                             -> OK, then one line per appointment change
+ *                                                        until the client sends any line
+ *   QUIT
+ *
+ * WATCH streams the appointment_changed feed of migration V008 as
+ *   STATUS id date old_status new_status   (null for none)
+ *   LINK   id doctor_id +|-
+ *   RESET                                  (anything may have changed)
+ * A client that falls dbproject.service.watchQueue changes behind is sent
+ * RESET in their place.
+ *
+ * With dbproject.shards set, requests are routed by ShardRouter: by the
+ * hospital, doctor or department they name, and to every shard for
+ * LIST_DEPARTMENT, FREE_SLOTS and the reports, whose rows then end with the
+ * number of the shard they came from. Patient and appointment IDs are only
+ * unique within a shard, so ADD_PATIENT then needs the hospital_id and
+ * ADD_APPOINTMENT and CANCEL_APPOINTMENT the doctor_id. ADD_DOCTOR writes
+ * every shard; when some fail it answers ERR and COPY_DOCTOR retries them.
+ *
+ * Rows are written tab separated. Failures answer ERR followed by a message.
+ * On Java 21 and later each session runs on a virtual thread, so idle
+ * clients cost no platform thread.
+ *
+ */
+
+public class DBService{
+	//most client sessions served at once, more wait in the accept queue
+	static final int MAX_SESSIONS = Integer.getInteger("dbproject.service.sessions", 256);
+	//changes queued for a WATCH client before it is sent RESET instead
+	static final int WATCH_QUEUE = Integer.getInteger("dbproject.service.watchQueue", 1024);
+	static final Set<String> COMMANDS = new HashSet<String>(Arrays.asList("ADD_DOCTOR", "COPY_DOCTOR", "ADD_PATIENT", "ADD_APPOINTMENT",
+		"OPEN_SLOTS", "OPEN_DEPARTMENT_SLOTS", "MAKE_APPOINTMENT", "BOOK_NEXT", "CANCEL_APPOINTMENT", "LIST_DOCTOR", "LIST_DEPARTMENT", "FREE_SLOTS",
+		"STATUS_COUNTS", "PATIENTS_WITH_STATUS"));
+
+	private final DBproject _esql;
+	//shard of each hospital, only the home shard _esql unless dbproject.shards is set
+	private final ShardRouter _router;
+	private final int _port;
+	//a virtual thread per session where the JVM has them, else at most MAX_SESSIONS threads
+	private final ExecutorService _sessions = AsyncDBproject.virtualThreads() ?
+		AsyncDBproject.newTaskExecutor("dbservice-session") : Executors.newFixedThreadPool(MAX_SESSIONS);
+
+	public DBService(DBproject esql, int port){
+		this(esql, new ShardRouter(esql), port);
+	}
+
+	public DBService(DBproject esql, ShardRouter router, int port){
+		this._esql = esql;
+		this._router = router;
+		this._port = port;
+	}
+
+	/**
+	 * Method to accept client sessions until the process is stopped.
+	 *
+	 * @throws java.io.IOException when the port cannot be bound
+	 */
+	public void serve() throws IOException {
+		ServerSocket server = new ServerSocket(this._port, MAX_SESSIONS, InetAddress.getLoopbackAddress());
+		System.out.println("Serving on " + server.getLocalSocketAddress() + " with " + this._esql.getPool().getMaxSize() + " database connections");
+		// the service is normally stopped with a signal, which skips cleanup()
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable(){
+			public void run(){ _esql.getSearchLog().close(); }
+		}, "search-log-flush"));
+		try{
+			// expires and archives past appointments while serving
+			this._esql.getArchiver().start();
+		}catch (SQLException e){
+			System.err.println("Archiver not started: " + e.getMessage());
+		}//end try
+		try{
+			while (true){
+				final Socket client = server.accept();
+				this._sessions.execute(new Runnable(){
+					public void run(){ session(client); }
+				});
+			}//end while
+		}finally{
+			this._sessions.shutdownNow();
+			server.close();
+		}
+	}//end serve
+
+	private void session(Socket client){
+		try{
+			BufferedReader reader = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+			PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8)));
+			String line;
+			while ((line = reader.readLine()) != null){
+				if (line.equals("QUIT")) break;
+				if (line.equals("WATCH")){
+					watch(reader, writer);
+					continue;
+				}//end if
+				String[] req = line.split("\t", -1);
+				// timed per request type, unknown ones are not given a histogram
+				Metrics.Sample sample = COMMANDS.contains(req[0]) ? this._esql.getMetrics().start("service:" + req[0]) : null;
+				try{
+					handle(req, writer);
+					if (sample != null) sample.done(0, 0);
+				}catch (Exception e){
+					writer.println("ERR\t" + e.getMessage());
+				}finally{
+					if (sample != null) sample.end();
+				}
+				writer.flush();
+			}//end while
+		}catch (IOException e){
+			// client went away.
+		}finally{
+			try{
+				client.close();
+			}catch (IOException e){
+				// ignored.
+			}//end try
+		}
+	}//end session
+
+	/**
+	 * Method to stream appointment changes to a client until it sends a line.
+	 */
+	private void watch(BufferedReader reader, final PrintWriter out) throws IOException {
+		// changed() runs on the feed's listener thread, shared by every subscriber of the shard,
+		// so it only queues and this client's own thread does the writing
+		final BlockingQueue<ChangeFeed.AppointmentChange> queue = new ArrayBlockingQueue<ChangeFeed.AppointmentChange>(WATCH_QUEUE);
+		ChangeFeed.AppointmentListener listener = new ChangeFeed.AppointmentListener(){
+			public void changed(ChangeFeed.AppointmentChange change){
+				if (!queue.offer(change)){
+					// too slow a client: drops what it has not read and tells it to start over
+					queue.clear();
+					queue.offer(ChangeFeed.AppointmentChange.RESET);
+				}//end if
+			}
+		};
+		Thread writer = new Thread(new Runnable(){
+			public void run(){
+				try{
+					while (true){
+						ChangeFeed.AppointmentChange change = queue.take();
+						synchronized (out){
+							out.println(change);
+							out.flush();
+							if (out.checkError()) return;
+						}
+					}//end while
+				}catch (InterruptedException e){
+					// watch stopped.
+				}//end try
+			}
+		}, "dbservice-watch");
+		writer.setDaemon(true);
+		// every shard's changes, appointment IDs are only unique within a shard
+		List<ChangeFeed.Subscriber> subscriptions = new ArrayList<ChangeFeed.Subscriber>();
+		for (DBproject shard : this._router.shards()){
+			subscriptions.add(shard.getChangeFeed().subscribeAppointments(listener));
+		}//end for
+		try{
+			synchronized (out){
+				out.println("OK\twatching");
+				out.flush();
+			}
+			writer.start();
+			reader.readLine();
+		}finally{
+			for (int i = 0; i < subscriptions.size(); ++i){
+				this._router.shards().get(i).getChangeFeed().unsubscribe(ChangeFeed.APPOINTMENT_CHANNEL, subscriptions.get(i));
+			}//end for
+			writer.interrupt();
+		}
+		try{
+			writer.join();
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}//end try
+		synchronized (out){
+			out.println("OK\tstopped");
+			out.flush();
+		}
+	}//end watch
+
+	private void handle(String[] req, PrintWriter out) throws Exception {
+		String cmd = req[0];
+		if (cmd.equals("ADD_DOCTOR")){
+			expect(req, 4);
+			out.println("OK\t" + this._router.addDoctor(req[1], req[2], Integer.parseInt(req[3])));
+		}else if (cmd.equals("COPY_DOCTOR")){
+			expect(req, 2);
+			this._router.copyDoctor(Integer.parseInt(req[1]));
+			out.println("OK");
+		}else if (cmd.equals("ADD_PATIENT")){
+			expect(req, 5, 6);
+			if (!(req[2].equals("M") || req[2].equals("F"))) throw new IllegalArgumentException("gender must be M or F");
+			int age = Integer.parseInt(req[3]);
+			if (age < 0) throw new IllegalArgumentException("age must be a positive integer");
+			// patients live on the shard of the hospital they book at
+			DBproject shard = req.length == 6 ? this._router.forHospital(Integer.parseInt(req[5])) : home(req, "hospital_id");
+			out.println("OK\t" + shard.addPatient(req[1], req[2], age, req[4]));
+		}else if (cmd.equals("ADD_APPOINTMENT")){
+			expect(req, 3, 4);
+			DBproject shard = req.length == 4 ? this._router.forDoctor(Integer.parseInt(req[3])) : home(req, "doctor_id");
+			out.println("OK\t" + shard.addAppointment(Date.valueOf(req[1]), req[2]));
+		}else if (cmd.equals("OPEN_SLOTS") || cmd.equals("OPEN_DEPARTMENT_SLOTS")){
+			expect(req, 6);
+			int id = Integer.parseInt(req[1]);
+			int weekdays = SlotTemplate.parseWeekdays(req[2]);
+			String[] slots = req[3].split(",");
+			Date from = Date.valueOf(req[4]);
+			Date to = Date.valueOf(req[5]);
+			SlotTemplate template = cmd.equals("OPEN_SLOTS") ? SlotTemplate.forDoctor(id, weekdays, slots, from, to)
+				: SlotTemplate.forDepartment(id, weekdays, slots, from, to);
+			DBproject shard = cmd.equals("OPEN_SLOTS") ? this._router.forDoctor(id) : this._router.forDepartment(id);
+			out.println("OK\t" + template.open(shard));
+		}else if (cmd.equals("MAKE_APPOINTMENT")){
+			expect(req, 7);
+			out.println("OK\t" + this._router.forDoctor(Integer.parseInt(req[5])).makeAppointment(req[1], req[2], Integer.parseInt(req[3]), req[4], Integer.parseInt(req[5]), Integer.parseInt(req[6])));
+		}else if (cmd.equals("BOOK_NEXT")){
+			expect(req, 4);
+			out.println("OK\t" + this._router.forDoctor(Integer.parseInt(req[2])).bookNextAvailable(Integer.parseInt(req[1]), Integer.parseInt(req[2]), Date.valueOf(req[3])));
+		}else if (cmd.equals("CANCEL_APPOINTMENT")){
+			expect(req, 3, 4);
+			// patient and appointment IDs are per shard, the doctor tells which
+			DBproject shard = req.length == 4 ? this._router.forDoctor(Integer.parseInt(req[3])) : home(req, "doctor_id");
+			out.println("OK\t" + shard.cancelAppointment(Integer.parseInt(req[1]), Integer.parseInt(req[2])));
+		}else if (cmd.equals("LIST_DOCTOR")){
+			expect(req, 4);
+			writeRows(this._router.forDoctor(Integer.parseInt(req[1])).listAppointmentsOfDoctor(Integer.parseInt(req[1]), Date.valueOf(req[2]), Date.valueOf(req[3])), out);
+		}else if (cmd.equals("LIST_DEPARTMENT")){
+			expect(req, 3);
+			writeRows(this._router.listAvailableAppointmentsOfDepartment(req[1], Date.valueOf(req[2])), out);
+		}else if (cmd.equals("FREE_SLOTS")){
+			expect(req, 4);
+			writeRows(this._router.listFreeSlotsOfDepartment(req[1], Date.valueOf(req[2]), req[3]), out);
+		}else if (cmd.equals("STATUS_COUNTS")){
+			expect(req, 1);
+			writeRows(this._router.listStatusCountsPerDoctor(), out);
+		}else if (cmd.equals("PATIENTS_WITH_STATUS")){
+			expect(req, 2);
+			writeRows(this._router.listPatientsWithStatusPerDoctor(req[1]), out);
+		}else if (cmd.equals("METRICS")){
+			// operation calls errors rows bytes wait_ms p50_ms p90_ms p99_ms max_ms
+			writeRows(this._esql.getMetrics().table(), out);
+		}else if (cmd.equals("STATS")){
+			out.println("OK\t" + this._esql.getPool().stats() + " cache " + this._esql.getReferenceCache().stats() +
+				" patients " + this._esql.getPatientResolver().stats() + " searches " + this._esql.getSearchLog().stats());
+		}else{
+			throw new IllegalArgumentException("unknown request " + cmd);
+		}//end if
+	}//end handle
+
+	private static void expect(String[] req, int fields){
+		if (req.length != fields) throw new IllegalArgumentException(req[0] + " takes " + (fields - 1) + " fields");
+	}
+
+	private static void expect(String[] req, int fields, int optional){
+		if (req.length != fields && req.length != optional) throw new IllegalArgumentException(req[0] + " takes " + (fields - 1) + " or " + (optional - 1) + " fields");
+	}
+
+	/*
+	 * The home shard for a request that names no shard key, which only
+	 * means something when there is no other shard.
+	 */
+	private DBproject home(String[] req, String key){
+		if (this._router.sharded()) throw new IllegalArgumentException(req[0] + " needs the " + key + " with dbproject.shards set");
+		return this._esql;
+	}
+
+	private static void writeRows(List<List<String>> rows, PrintWriter out){
+		for (List<String> row : rows){
+			for (int i = 0; i < row.size(); ++i){
+				if (i > 0) out.print('\t');
+				out.print(row.get(i));
+			}//end for
+			out.println();
+		}//end for
+		out.println("OK\t" + rows.size());
+	}
+}//end DBService
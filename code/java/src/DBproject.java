@@ -11,9 +11,10 @@
  */
 
 
-import java.sql.DriverManager;
-import java.sql.Connection;
-import java.sql.Statement;
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.Types;
+import java.sql.Date;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
@@ -21,8 +22,13 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
-import java.util.List;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * This class defines a simple embedded SQL utility class that is designed to
@@ -31,19 +37,67 @@ import java.util.ArrayList;
  */
 
 public class DBproject{
-	//reference to physical database connection
-	private Connection _connection = null;
+	//bounded pool of physical database connections
+	private ConnectionPool _pool = null;
+	//latency histograms and slow-query log of every statement
+	private final Metrics _metrics = new Metrics(this);
+	//finds or adds the patient of a booking
+	private final PatientResolver _patients = new PatientResolver(this);
+	//Doctor, Department and Hospital rows kept in memory
+	private ReferenceCache _reference = null;
+	//notifications of the reference_changed and appointment_changed channels
+	private ChangeFeed _feed = null;
+	//runs statements and operations off the calling thread
+	private AsyncDBproject _async = null;
+	//latest applied migration, -1 until first needed
+	private volatile int _schemaVersion = -1;
+	//first migration with Appointment.slot_start and slot_end
+	static final int STRUCTURED_SLOT_VERSION = 2;
+	//first migration with the available_slot table
+	static final int AVAILABLE_SLOT_VERSION = 5;
+	//block-reserving key allocator for Doctor, Patient and Appointment
+	private final IdAllocator _ids = new IdAllocator(this);
+	//transactional booking of appointments
+	private final BookingEngine _booking = new BookingEngine(this);
+	//writes the searches behind bookings in the background
+	private final SearchLog _searches = new SearchLog(this);
+	//moves past appointments to the archive tables of migration V007
+	private final Archiver _archiver = new Archiver(this);
+	//attempts of a transaction aborted by a serialization failure or deadlock
+	static final int TX_ATTEMPTS = 3;
+	//executions after which the driver switches a statement to a server-side plan
+	static final int PREPARE_THRESHOLD = 2;
+	//pool sizing, overridable with -Ddbproject.pool.size=... etc.
+	static final int POOL_SIZE = Integer.getInteger("dbproject.pool.size", 2 * Runtime.getRuntime().availableProcessors());
+	static final long POOL_ACQUIRE_TIMEOUT = Long.getLong("dbproject.pool.acquireTimeoutMs", 5000L);
+	static final long POOL_IDLE_TIMEOUT = Long.getLong("dbproject.pool.idleTimeoutMs", 60000L);
+	//rows the driver fetches per round-trip while streaming results
+	static final int FETCH_SIZE = Integer.getInteger("dbproject.fetchSize", 100);
+	//rows shown per page by the listing menu operations
+	static final int PAGE_SIZE = Integer.getInteger("dbproject.pageSize", 20);
+	//reports 7 and 8 read the doctor_status_count summary of migration V003
+	static final boolean REPORT_SUMMARY = Boolean.getBoolean("dbproject.reports.summary");
 	static BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+	//buffered standard out for result rows, flushed once per fetched batch
+	static final PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16), false);
 	
 	public DBproject(String dbname, String dbport, String user, String passwd) throws SQLException {
 		System.out.print("Connecting to database...");
 		try{
 			// constructs the connection URL
-			String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
+			String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname + "?prepareThreshold=" + PREPARE_THRESHOLD;
 			System.out.println ("Connection URL: " + url + "\n");
 			
-			// obtain a physical connection
-	        this._connection = DriverManager.getConnection(url, user, passwd);
+			// obtain a physical connection, checking the database is reachable
+			this._pool = new ConnectionPool(url, user, passwd, POOL_SIZE, POOL_ACQUIRE_TIMEOUT, POOL_IDLE_TIMEOUT);
+			this._pool.release(this._pool.acquire());
+			this._reference = new ReferenceCache(this._pool);
+			this._reference.schemaChanged(getSchemaVersion());
+			this._feed = new ChangeFeed(this._pool);
+			this._feed.subscribe(ReferenceCache.CHANNEL, this._reference);
+			this._feed.start();
+			this._async = new AsyncDBproject(this);
+			this._searches.start();
 	        System.out.println("Done");
 		}catch(Exception e){
 			System.err.println("Error - Unable to Connect to Database: " + e.getMessage());
@@ -56,61 +110,184 @@ public class DBproject{
 	 * Method to execute an update SQL statement.  Update SQL instructions
 	 * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
 	 * 
-	 * @param sql the input SQL string
+	 * @param sql the input SQL string, with ? placeholders for the parameters
+	 * @param params the values bound to the placeholders, in order
+	 * @return the number of rows affected
 	 * @throws java.sql.SQLException when update failed
 	 * */
-	public void executeUpdate (String sql) throws SQLException { 
-		// creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		// issues the update instruction
-		stmt.executeUpdate (sql);
+	public int executeUpdate (String sql, Object... params) throws SQLException { 
+		return update (null, sql, params);
+	}//end executeUpdate
 
-		// close the instruction
-	    stmt.close ();
+	/**
+	 * Method to execute a named update statement.
+	 * 
+	 * @param query the named statement
+	 * @param params the values bound to the placeholders, in order
+	 * @return the number of rows affected
+	 * @throws java.sql.SQLException when update failed
+	 * */
+	public int executeUpdate (Query query, Object... params) throws SQLException { 
+		return update (query, query.sql, params);
 	}//end executeUpdate
 
+	private int update (Query named, String sql, Object[] params) throws SQLException {
+		Metrics.Sample sample = this._metrics.start (named, sql, params);
+		try{
+			ConnectionPool.PooledConnection pc = this._pool.acquire ();
+			sample.acquired ();
+			try{
+				// gets the cached statement object, binds the values and issues the update instruction
+				int rows = prepare (pc, named, sql, params).executeUpdate ();
+				sample.done (rows, 0);
+				return rows;
+			}finally{
+				this._pool.release (pc);
+			}
+		}finally{
+			sample.end ();
+		}
+	}
+
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and outputs the results to
 	 * standard out.
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string, with ? placeholders for the parameters
+	 * @param params the values bound to the placeholders, in order
 	 * @return the number of rows returned
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQueryAndPrintResult (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
+	public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+		return printResult (null, query, params);
+	}
 
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
+	/**
+	 * Method to execute a named query and output the results to standard out.
+	 * 
+	 * @param query the named query
+	 * @param params the values bound to the placeholders, in order
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQueryAndPrintResult (Query query, Object... params) throws SQLException {
+		return printResult (query, query.sql, params);
+	}
 
-		/*
-		 *  obtains the metadata object for the returned result set.  The metadata
-		 *  contains row and column info.
-		 */
-		ResultSetMetaData rsmd = rs.getMetaData ();
-		int numCol = rsmd.getColumnCount ();
-		int rowCount = 0;
-		
-		//iterates through the result set and output them to standard out.
-		boolean outputHeader = true;
-		while (rs.next()){
-			if(outputHeader){
-				for(int i = 1; i <= numCol; i++){
-					System.out.print(rsmd.getColumnName(i) + "\t");
-			    }
-			    System.out.println();
-			    outputHeader = false;
+	/**
+	 * Method to execute a named query and stream the results to standard
+	 * out a page at a time. After each page the user is asked whether to
+	 * show the next one.
+	 * 
+	 * @param query the named query
+	 * @param pageSize rows shown before asking for the next page, 0 for no paging
+	 * @param maxRows most rows fetched from the DBMS, 0 for no limit
+	 * @param params the values bound to the placeholders, in order
+	 * @return the number of rows printed
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQueryAndPrintPages (Query query, int pageSize, int maxRows, Object... params) throws SQLException {
+		return printResult (query, query.sql, params, pageSize, maxRows);
+	}
+
+	private int printResult (Query named, String sql, Object[] params) throws SQLException {
+		return printResult (named, sql, params, 0, 0);
+	}
+
+	private int printResult (Query named, String sql, Object[] params, int pageSize, int maxRows) throws SQLException {
+		Metrics.Sample sample = this._metrics.start (named, sql, params);
+		ConnectionPool.PooledConnection pc;
+		try{
+			pc = this._pool.acquire ();
+		}catch (SQLException e){
+			sample.end ();
+			throw e;
+		}//end try
+		sample.acquired ();
+		PreparedStatement stmt = null;
+		try{
+			// the driver only fetches through a cursor outside autocommit
+			pc.connection.setAutoCommit (false);
+			stmt = prepare (pc, named, sql, params);
+			stmt.setFetchSize (FETCH_SIZE);
+			stmt.setMaxRows (maxRows);
+
+			//issues the query instruction
+			ResultSet rs = stmt.executeQuery ();
+
+			/*
+			 *  obtains the metadata object for the returned result set.  The metadata
+			 *  contains row and column info.
+			 */
+			ResultSetMetaData rsmd = rs.getMetaData ();
+			int numCol = rsmd.getColumnCount ();
+			int rowCount = 0;
+			long bytes = 0;
+			
+			//iterates through the result set and output them to standard out.
+			synchronized (out){
+				boolean outputHeader = true;
+				while (rs.next()){
+					if(outputHeader){
+						for(int i = 1; i <= numCol; i++){
+							out.print(rsmd.getColumnName(i));
+							out.print('\t');
+					    }
+					    out.println();
+					    outputHeader = false;
+					}
+					for (int i=1; i<=numCol; ++i){
+						String value = rs.getString (i);
+						if (value != null) bytes += value.length ();
+						out.print (value);
+						out.print ('\t');
+					}
+					out.println ();
+					++rowCount;
+					// shows the first row and every fetched batch as soon as it arrives
+					if (rowCount == 1 || rowCount % FETCH_SIZE == 0) out.flush ();
+					if (pageSize > 0 && rowCount % pageSize == 0){
+						long asked = System.nanoTime ();
+						boolean more = nextPage ();
+						sample.paused (System.nanoTime () - asked);
+						if (!more) break;
+					}//end if
+				}//end while
+				out.flush ();
 			}
-			for (int i=1; i<=numCol; ++i)
-				System.out.print (rs.getString (i) + "\t");
-			System.out.println ();
-			++rowCount;
-		}//end while
-		stmt.close ();
-		return rowCount;
+			rs.close ();
+			pc.connection.commit ();
+			sample.done (rowCount, bytes);
+			return rowCount;
+		}finally{
+			try{
+				// the statement is cached, later callers expect no row limit
+				if (stmt != null) stmt.setMaxRows (0);
+				pc.connection.rollback ();
+				pc.connection.setAutoCommit (true);
+			}catch (SQLException e){
+				// the pool drops connections left outside autocommit.
+			}//end try
+			this._pool.release (pc);
+			sample.end ();
+		}
+	}
+
+	/**
+	 * Method to ask the user whether to print another page of rows.
+	 * 
+	 * @return false when the user asked to stop
+	 */
+	private static boolean nextPage () {
+		out.print ("-- more -- (Enter for next page, q to stop) ");
+		out.flush ();
+		try{
+			String answer = in.readLine ();
+			return answer != null && !answer.trim ().equalsIgnoreCase ("q");
+		}catch (IOException e){
+			return false;
+		}//end try
 	}
 	
 	/**
@@ -118,61 +295,245 @@ public class DBproject{
 	 * method issues the query to the DBMS and returns the results as
 	 * a list of records. Each record in turn is a list of attribute values
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string, with ? placeholders for the parameters
+	 * @param params the values bound to the placeholders, in order
 	 * @return the query result as a list of records
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException { 
-		//creates a statement object 
-		Statement stmt = this._connection.createStatement (); 
-		
-		//issues the query instruction 
-		ResultSet rs = stmt.executeQuery (query); 
-	 
-		/*
-		 * obtains the metadata object for the returned result set.  The metadata 
-		 * contains row and column info. 
-		*/ 
-		ResultSetMetaData rsmd = rs.getMetaData (); 
-		int numCol = rsmd.getColumnCount (); 
-		int rowCount = 0; 
-	 
-		//iterates through the result set and saves the data returned by the query. 
-		boolean outputHeader = false;
-		List<List<String>> result  = new ArrayList<List<String>>(); 
-		while (rs.next()){
-			List<String> record = new ArrayList<String>(); 
-			for (int i=1; i<=numCol; ++i) 
-				record.add(rs.getString (i)); 
-			result.add(record); 
-		}//end while 
-		stmt.close (); 
-		return result; 
+	public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException { 
+		return returnResult (null, query, params);
+	}//end executeQueryAndReturnResult
+
+	/**
+	 * Method to execute a named query and return the results as a list of
+	 * records.
+	 * 
+	 * @param query the named query
+	 * @param params the values bound to the placeholders, in order
+	 * @return the query result as a list of records
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public List<List<String>> executeQueryAndReturnResult (Query query, Object... params) throws SQLException { 
+		return returnResult (query, query.sql, params);
 	}//end executeQueryAndReturnResult
+
+	private List<List<String>> returnResult (Query named, String sql, Object[] params) throws SQLException { 
+		// the records are a String view over the columnar rows
+		return returnColumns (named, sql, params).asLists (); 
+	}
+
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
+	 * method issues the query to the DBMS and returns the results column by
+	 * column in primitive arrays (see ColumnarResult).
+	 * 
+	 * @param query the input query string, with ? placeholders for the parameters
+	 * @param params the values bound to the placeholders, in order
+	 * @return the query result
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public ColumnarResult executeQueryAndReturnColumns (String query, Object... params) throws SQLException { 
+		return returnColumns (null, query, params);
+	}//end executeQueryAndReturnColumns
+
+	/**
+	 * Method to execute a named query and return the results column by
+	 * column in primitive arrays.
+	 * 
+	 * @param query the named query
+	 * @param params the values bound to the placeholders, in order
+	 * @return the query result
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public ColumnarResult executeQueryAndReturnColumns (Query query, Object... params) throws SQLException { 
+		return returnColumns (query, query.sql, params);
+	}//end executeQueryAndReturnColumns
+
+	private ColumnarResult returnColumns (Query named, String sql, Object[] params) throws SQLException { 
+		Metrics.Sample sample = this._metrics.start (named, sql, params);
+		try{
+			ConnectionPool.PooledConnection pc = this._pool.acquire ();
+			sample.acquired ();
+			try{
+				//issues the query instruction 
+				ResultSet rs = prepare (pc, named, sql, params).executeQuery (); 
+				//iterates through the result set and saves the data returned by the query. 
+				ColumnarResult result = ColumnarResult.read (rs); 
+				rs.close (); 
+				sample.done (result.rowCount (), result.bytes ());
+				return result; 
+			}finally{
+				this._pool.release (pc);
+			}
+		}finally{
+			sample.end ();
+		}
+	}
 	
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and returns the number of results
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string, with ? placeholders for the parameters
+	 * @param params the values bound to the placeholders, in order
 	 * @return the number of rows returned
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQuery (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
+	public int executeQuery (String query, Object... params) throws SQLException {
+		return countResult (null, query, params);
+	}
 
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
+	/**
+	 * Method to execute a named query and return the number of results
+	 * 
+	 * @param query the named query
+	 * @param params the values bound to the placeholders, in order
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQuery (Query query, Object... params) throws SQLException {
+		return countResult (query, query.sql, params);
+	}
 
-		int rowCount = 0;
+	private int countResult (Query named, String sql, Object[] params) throws SQLException {
+		Metrics.Sample sample = this._metrics.start (named, sql, params);
+		try{
+			ConnectionPool.PooledConnection pc = this._pool.acquire ();
+			sample.acquired ();
+			try{
+				//issues the query instruction
+				ResultSet rs = prepare (pc, named, sql, params).executeQuery ();
 
-		//iterates through the result set and count nuber of results.
-		while(rs.next()){
-			rowCount++;
-		}//end while
-		stmt.close ();
-		return rowCount;
+				int rowCount = 0;
+
+				//iterates through the result set and count nuber of results.
+				while(rs.next()){
+					rowCount++;
+				}//end while
+				rs.close ();
+				sample.done (rowCount, 0);
+				return rowCount;
+			}finally{
+				this._pool.release (pc);
+			}
+		}finally{
+			sample.end ();
+		}
+	}
+
+	/**
+	 * Method to get the cached statement of a connection and bind parameter
+	 * values to it, in order.
+	 * 
+	 * @param pc the borrowed connection
+	 * @param named the named query, or null for an ad-hoc SQL string
+	 * @param sql the SQL string
+	 * @param params the values, null binds SQL NULL
+	 * @return the bound statement
+	 * @throws java.sql.SQLException when a value cannot be bound
+	 */
+	private static PreparedStatement prepare (ConnectionPool.PooledConnection pc, Query named, String sql, Object[] params) throws SQLException {
+		PreparedStatement stmt = named != null ? pc.statements.prepare (named) : pc.statements.prepare (sql);
+		stmt.clearParameters ();
+		bindParams (pc, stmt, params);
+		return stmt;
+	}//end prepare
+
+	/**
+	 * Method to bind parameter values to a statement, in order. An int[]
+	 * binds a Postgres int4[] array.
+	 */
+	static void bindParams (ConnectionPool.PooledConnection pc, PreparedStatement stmt, Object[] params) throws SQLException {
+		for (int i = 0; i < params.length; ++i){
+			if (params[i] == null) stmt.setNull (i + 1, Types.NULL);
+			else if (params[i] instanceof int[]) stmt.setArray (i + 1, intArray (pc, (int[]) params[i]));
+			else if (params[i] instanceof String[]) stmt.setArray (i + 1, pc.connection.createArrayOf ("varchar", (String[]) params[i]));
+			else stmt.setObject (i + 1, params[i]);
+		}//end for
+	}
+
+	private static Array intArray (ConnectionPool.PooledConnection pc, int[] values) throws SQLException {
+		Integer[] boxed = new Integer[values.length];
+		for (int i = 0; i < values.length; ++i){
+			boxed[i] = values[i];
+		}//end for
+		return pc.connection.createArrayOf ("int4", boxed);
+	}
+
+	/**
+	 * Method to get the cached statement of a named query on a borrowed
+	 * connection with the parameter values bound, for work running inside
+	 * inTransaction.
+	 * 
+	 * @param pc the borrowed connection
+	 * @param query the named query
+	 * @param params the values bound to the placeholders, in order
+	 * @return the bound statement, owned by the connection's cache
+	 * @throws java.sql.SQLException when a value cannot be bound
+	 */
+	static PreparedStatement bind (ConnectionPool.PooledConnection pc, Query query, Object... params) throws SQLException {
+		return prepare (pc, query, query.sql, params);
+	}//end bind
+
+	/**
+	 * Unit of work run on one connection inside one transaction.
+	 */
+	public interface Work<T>{
+		T run (ConnectionPool.PooledConnection pc) throws SQLException;
+	}
+
+	/**
+	 * Method to run a unit of work as one transaction. The work is retried
+	 * from the start when Postgres aborts it for a serialization failure or
+	 * a deadlock; any other exception rolls it back and is rethrown.
+	 * 
+	 * @param work the statements to run
+	 * @return what the work returned
+	 * @throws java.sql.SQLException when the transaction failed
+	 */
+	public <T> T inTransaction (Work<T> work) throws SQLException {
+		for (int attempt = 1; ; ++attempt){
+			Metrics.Sample sample = this._metrics.start ("transaction");
+			ConnectionPool.PooledConnection pc;
+			try{
+				pc = this._pool.acquire ();
+			}catch (SQLException e){
+				sample.end ();
+				throw e;
+			}//end try
+			sample.acquired ();
+			try{
+				pc.connection.setAutoCommit (false);
+				T result = work.run (pc);
+				pc.connection.commit ();
+				sample.done (0, 0);
+				return result;
+			}catch (SQLException e){
+				rollback (pc);
+				String state = e.getSQLState ();
+				boolean retry = "40001".equals (state) || "40P01".equals (state);
+				if (!retry || attempt >= TX_ATTEMPTS) throw e;
+			}catch (RuntimeException e){
+				rollback (pc);
+				throw e;
+			}finally{
+				try{
+					pc.connection.setAutoCommit (true);
+				}catch (SQLException e){
+					// the pool drops connections left outside autocommit.
+				}//end try
+				this._pool.release (pc);
+				sample.end ();
+			}
+		}//end for
+	}//end inTransaction
+
+	private static void rollback (ConnectionPool.PooledConnection pc) {
+		try{
+			pc.connection.rollback ();
+		}catch (SQLException e){
+			// ignored, the connection is dropped on release.
+		}//end try
 	}
 	
 	/**
@@ -186,38 +547,288 @@ public class DBproject{
 	 */
 	
 	public int getCurrSeqVal(String sequence) throws SQLException {
-		Statement stmt = this._connection.createStatement ();
-		
-		ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-		if (rs.next()) return rs.getInt(1);
-		return -1;
+		return singleInt (Query.CURR_SEQ_VAL, sequence);
 	}
 
 	/**
-	 * Method to close the physical connection if it is open.
+	 * Method to advance a sequence and fetch its new value. This
+	 * method issues the query to the DBMS and returns the next
+	 * value of sequence used for autogenerated keys
+	 * 
+	 * @param sequence name of the DB sequence
+	 * @return next value of a sequence
+	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public void cleanup(){
+	public int getNextSeqVal(String sequence) throws SQLException {
+		return singleInt (Query.NEXT_SEQ_VAL, sequence);
+	}
+
+	private int singleInt (Query query, Object... params) throws SQLException {
+		ConnectionPool.PooledConnection pc = this._pool.acquire ();
 		try{
-			if (this._connection != null){
-				this._connection.close ();
-			}//end if
-		}catch (SQLException e){
-	         // ignored.
-		}//end try
+			ResultSet rs = prepare (pc, query, query.sql, params).executeQuery ();
+			int value = -1;
+			if (rs.next()) value = rs.getInt(1);
+			rs.close ();
+			return value;
+		}finally{
+			this._pool.release (pc);
+		}
+	}
+
+	/**
+	 * Method to get a new primary key for a table. Keys are reserved from
+	 * the table's sequence a block at a time (see IdAllocator), so this
+	 * normally costs no round-trip and never scans the table.
+	 * 
+	 * @param sequence name of the DB sequence, one of the IdAllocator constants
+	 * @return a key unused by any other client
+	 * @throws java.sql.SQLException when failed to reserve a new block
+	 */
+	public int getNextId(String sequence) throws SQLException {
+		return this._ids.next(sequence);
+	}
+
+	/**
+	 * Method to get the key allocator, e.g. to reset it after a reload.
+	 */
+	public IdAllocator getIdAllocator(){
+		return this._ids;
+	}
+
+	/**
+	 * Method to get the asynchronous facade, e.g. to start independent
+	 * lookups together.
+	 */
+	public AsyncDBproject getAsync(){
+		return this._async;
+	}
+
+	/**
+	 * Method to get the change feed, e.g. to follow appointment changes.
+	 */
+	public ChangeFeed getChangeFeed(){
+		return this._feed;
+	}
+
+	/**
+	 * Method to get the background writer of searches.
+	 */
+	public SearchLog getSearchLog(){
+		return this._searches;
+	}
+
+	/**
+	 * Method to get the job moving past appointments to the archive.
+	 */
+	public Archiver getArchiver(){
+		return this._archiver;
+	}
+
+	/**
+	 * Method to get the cache of Doctor, Department and Hospital rows.
+	 */
+	public ReferenceCache getReferenceCache(){
+		return this._reference;
+	}
+
+	/**
+	 * Method to get the latest applied migration, read once and cached.
+	 */
+	public int getSchemaVersion() throws SQLException {
+		if (this._schemaVersion < 0){
+			this._schemaVersion = new Migrator (this, new File (Migrator.DEFAULT_DIR)).currentVersion ();
+		}//end if
+		return this._schemaVersion;
+	}
+
+	/**
+	 * Method to forget the cached schema version after applying migrations
+	 * and to pass the new one on to the reference cache.
+	 */
+	void schemaChanged() throws SQLException {
+		this._schemaVersion = -1;
+		this._reference.schemaChanged(getSchemaVersion());
+	}
+
+	/**
+	 * Method to get the query listing the available appointments of some
+	 * departments on a date: one index range of available_slot once
+	 * migration V005 is applied, the join otherwise.
+	 */
+	Query availableAppointmentsQuery() throws SQLException {
+		return getSchemaVersion () >= AVAILABLE_SLOT_VERSION ? Query.LIST_AVAILABLE_SLOTS_OF_DEPARTMENT : Query.LIST_AVAILABLE_APPOINTMENTS_OF_DEPARTMENT;
+	}
+
+	/**
+	 * Method to get the query locking the earliest available appointment of
+	 * a doctor on a date, by slot start rather than by the slot text, which
+	 * sorts 10:00-12:00 before 8:00-10:00.
+	 */
+	Query nextAvailableQuery() throws SQLException {
+		return getSchemaVersion () >= STRUCTURED_SLOT_VERSION ? Query.LOCK_NEXT_AVAILABLE_BY_START : Query.LOCK_NEXT_AVAILABLE;
+	}
+
+	Query freeSlotsQuery() throws SQLException {
+		return getSchemaVersion () >= AVAILABLE_SLOT_VERSION ? Query.LIST_FREE_SLOTS_OF_DEPARTMENT_INDEXED : Query.LIST_FREE_SLOTS_OF_DEPARTMENT;
+	}
+
+	/**
+	 * Method to get the patient lookup of bookings.
+	 */
+	public PatientResolver getPatientResolver(){
+		return this._patients;
+	}
+
+	/**
+	 * Method to get the latency histograms and slow-query log.
+	 */
+	public Metrics getMetrics(){
+		return this._metrics;
+	}
+
+	/**
+	 * Method to get the connection pool, e.g. for its stats.
+	 */
+	public ConnectionPool getPool(){
+		return this._pool;
+	}
+
+	/**
+	 * Method to close the connection pool and every physical connection
+	 * in it.
+	 */
+	public void cleanup(){
+		if (this._async != null){
+			this._async.close ();
+		}//end if
+		this._archiver.close ();
+		// queued searches still need the pool
+		this._searches.close ();
+		if (this._feed != null){
+			this._feed.close ();
+		}//end if
+		if (this._pool != null){
+			this._pool.close ();
+		}//end if
+		this._metrics.close ();
 	}//end cleanup
 
+	/*
+	 * Non-interactive versions of the menu operations. The menu methods below
+	 * prompt for their input and call these; DBService calls them directly.
+	 */
+
+	public int addDoctor(String name, String specialty, int did) throws SQLException {
+		int doctor_id = getNextId(IdAllocator.DOCTOR);
+		executeUpdate(Query.ADD_DOCTOR, doctor_id, name, specialty, did);
+		// drops a cached "no such doctor" for the new ID
+		this._reference.invalidateDoctor(doctor_id);
+		return doctor_id;
+	}
+
+	public int addPatient(String name, String gender, int age, String address) throws SQLException {
+		int patient_ID = getNextId(IdAllocator.PATIENT);
+		executeUpdate(Query.ADD_PATIENT, patient_ID, name, gender, age, address);
+		return patient_ID;
+	}
+
+	public int addAppointment(Date adate, String time_slot) throws SQLException {
+		if (TimeSlot.parse(time_slot) == TimeSlot.INVALID) throw new IllegalArgumentException("Invalid time slot " + time_slot);
+		int appnt_ID = getNextId(IdAllocator.APPOINTMENT);
+		executeUpdate(Query.ADD_APPOINTMENT, appnt_ID, adate, time_slot);
+		return appnt_ID;
+	}
+
+	public String makeAppointment(String name, String gender, int age, String address, int doctor_id, int appnt_ID) throws SQLException {
+		return this._booking.book(name, gender, age, address, doctor_id, appnt_ID);
+	}
+
+	public String cancelAppointment(int patient_ID, int appnt_ID) throws SQLException {
+		return this._booking.cancel(patient_ID, appnt_ID);
+	}
+
+	public int bookNextAvailable(int patient_ID, int doctor_id, Date adate) throws SQLException {
+		return this._booking.bookNextAvailable(patient_ID, doctor_id, adate);
+	}
+
+	public List<List<String>> listAppointmentsOfDoctor(int doctor_id, Date begin, Date end) throws SQLException {
+		return executeQueryAndReturnResult(Query.LIST_APPOINTMENTS_OF_DOCTOR, doctor_id, begin, end);
+	}
+
+	public List<List<String>> listAvailableAppointmentsOfDepartment(String name, Date date) throws SQLException {
+		int[] dids = this._reference.departmentsNamed(name);
+		if (dids.length == 0) return new ArrayList<List<String>>();
+		return executeQueryAndReturnResult(availableAppointmentsQuery(), dids, date);
+	}
+
+	/**
+	 * Method to count the appointments of each status per doctor, doctors
+	 * with the most appointments first.
+	 */
+	public List<List<String>> listStatusCountsPerDoctor() throws SQLException {
+		return executeQueryAndReturnResult(statusCountsQuery());
+	}
+
+	/**
+	 * Method to count the patients per doctor with an appointment of the
+	 * given status (PA, AC, AV or WL), largest count first.
+	 */
+	public List<List<String>> listPatientsWithStatusPerDoctor(String status) throws SQLException {
+		ColumnarResult.statusCode(status);
+		return executeQueryAndReturnResult(patientsWithStatusQuery(), status);
+	}
+
+	/**
+	 * Method to get the query of report 7: the doctor_status_count summary
+	 * when enabled, else the grouping join, which also counts the archive
+	 * once migration V007 is applied.
+	 */
+	Query statusCountsQuery() throws SQLException {
+		if (REPORT_SUMMARY) return Query.STATUS_COUNTS_PER_DOCTOR_SUMMARY;
+		return getSchemaVersion () >= Archiver.ARCHIVE_VERSION ? Query.STATUS_COUNTS_PER_DOCTOR_WITH_ARCHIVE : Query.STATUS_COUNTS_PER_DOCTOR;
+	}
+
+	Query patientsWithStatusQuery() throws SQLException {
+		if (REPORT_SUMMARY) return Query.PATIENTS_WITH_STATUS_PER_DOCTOR_SUMMARY;
+		return getSchemaVersion () >= Archiver.ARCHIVE_VERSION ? Query.PATIENTS_WITH_STATUS_PER_DOCTOR_WITH_ARCHIVE : Query.PATIENTS_WITH_STATUS_PER_DOCTOR;
+	}
+
+	/**
+	 * Method to list the available appointments of a department on a date
+	 * that lie within a time window, e.g. 9:00-12:00. Needs migration V002.
+	 */
+	public List<List<String>> listFreeSlotsOfDepartment(String name, Date date, String window) throws SQLException {
+		int slot = TimeSlot.parse(window);
+		if (slot == TimeSlot.INVALID) throw new IllegalArgumentException("Invalid time window " + window);
+		StringBuilder from = new StringBuilder();
+		StringBuilder to = new StringBuilder();
+		TimeSlot.appendTime(from, TimeSlot.start(slot));
+		TimeSlot.appendTime(to, TimeSlot.end(slot));
+		int[] dids = this._reference.departmentsNamed(name);
+		if (dids.length == 0) return new ArrayList<List<String>>();
+		return executeQueryAndReturnResult(freeSlotsQuery(), dids, date, from.toString(), to.toString());
+	}
+
 	/**
 	 * The main execution method
 	 * 
 	 * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
 	 */
 	public static void main (String[] args) {
-		if (args.length != 3) {
+		String mode = args.length > 3 ? args[3] : "";
+		if (!(args.length == 3 || (args.length == 5 && mode.equals("--serve")) || (args.length <= 5 && mode.equals("--migrate")) || (args.length <= 6 && mode.equals("--load")) || (args.length == 4 && mode.equals("--archive")) || (args.length <= 5 && mode.equals("--schedule")))) {
 			System.err.println (
 				"Usage: " + "java [-classpath <classpath>] " + DBproject.class.getName () +
-		            " <dbname> <port> <user>");
+		            " <dbname> <port> <user> [--serve <listen port> | --migrate [<migrations dir>] | --load [<data dir>] [--clear-archive] | --archive | --schedule [<days>]]");
 			return;
 		}//end if
+		// only service mode routes by hospital, the others would put every hospital's rows on the home shard
+		if (!ShardRouter.SHARDS.trim().isEmpty() && !mode.equals("--serve") && !mode.equals("--migrate")) {
+			System.err.println ("dbproject.shards is only used by --serve; run " + (mode.isEmpty() ? "the menu" : mode) +
+				" against each shard without it");
+			System.exit (-1);
+		}//end if
 		
 		DBproject esql = null;
 		
@@ -239,6 +850,47 @@ public class DBproject{
 			String user = args[2];
 			
 			esql = new DBproject (dbname, dbport, user, "");
+
+			if (mode.equals("--serve")) {
+				// headless mode, serves clients until killed
+				ShardRouter router = ShardRouter.configure (esql, dbname, user);
+				try{
+					new DBService (esql, router, Integer.parseInt (args[4])).serve ();
+				}finally{
+					router.close ();
+				}
+				return;
+			}//end if
+			if (mode.equals("--migrate")) {
+				File dir = new File (args.length == 5 ? args[4] : Migrator.DEFAULT_DIR);
+				int applied = new Migrator (esql, dir).migrate ();
+				System.out.println (applied + " migration(s) applied");
+				return;
+			}//end if
+			if (mode.equals("--load")) {
+				boolean clearArchive = args[args.length - 1].equals("--clear-archive");
+				int dirArg = clearArchive ? args.length - 1 : args.length;
+				File dir = new File (dirArg == 5 ? args[4] : BulkLoader.DEFAULT_DIR);
+				if (clearArchive) {
+					// the archive is in no snapshot, so this cannot be undone by loading again
+					System.out.print ("This also deletes every archived appointment. Type yes to continue: ");
+					if (!"yes".equals (in.readLine ())) {
+						System.out.println ("Load cancelled");
+						return;
+					}//end if
+				}//end if
+				new BulkLoader (esql, dir, clearArchive).load ();
+				return;
+			}//end if
+			if (mode.equals("--archive")) {
+				System.out.println (esql.getArchiver ().run ());
+				return;
+			}//end if
+			if (mode.equals("--schedule")) {
+				int days = args.length == 5 ? Integer.parseInt (args[4]) : StaffScheduler.DEFAULT_DAYS;
+				System.out.println (new StaffScheduler (esql).run (days));
+				return;
+			}//end if
 			
 			boolean keepon = true;
 			while(keepon){
@@ -299,17 +951,14 @@ public class DBproject{
 
 	public static void AddDoctor(DBproject esql) {//1
 		try{
-			int doctor_id = esql.executeQuery("SELECT * FROM Doctor;");
-                        String query = "INSERT INTO Doctor VALUES (";
                         System.out.print("\tEnter Doctor's name: ");
                         String name = in.readLine();
                         System.out.print("\tEnter Doctor's specialty: ");
                         String specialty = in.readLine();
                         System.out.print("\tEnter Doctor's department ID: ");
-                        String did = in.readLine();
+                        int did = Integer.parseInt(in.readLine());
 			System.out.print("\n");
-                        query += doctor_id + ", \'" + name + "\', \'" + specialty + "\', " + did + ");";
-                        esql.executeUpdate(query);
+                        esql.addDoctor(name, specialty, did);
 			System.out.print("Succesfully added Doctor!\n");
                 }
                 catch(Exception e) {
@@ -321,8 +970,6 @@ public class DBproject{
 
 	public static void AddPatient(DBproject esql) {//2
 		try {	
-			int patient_ID = esql.executeQuery("SELECT * FROM Patient;");
-                        String query = "INSERT INTO Patient VALUES (";
                         System.out.print("\tEnter Patient's name: ");
                         String name = in.readLine();
                         System.out.print("\tEnter Patient's gender (M/F): ");
@@ -351,8 +998,7 @@ public class DBproject{
 			System.out.print("\tEnter Patient's address: ");
                         String address = in.readLine();
                         System.out.print("\n");
-                        query += patient_ID + ", \'" + name + "\', \'" + gender + "\', " + age + ", \'" + address + "\', 0);";
-                        esql.executeUpdate(query);
+                        esql.addPatient(name, gender, x, address);
                         System.out.print("Succesfully added Patient!\n");
                 }
                 catch(Exception e) {
@@ -363,58 +1009,23 @@ public class DBproject{
 
 	public static void AddAppointment(DBproject esql) {//3
 		try{
-			int appnt_ID = esql.executeQuery("SELECT * FROM Appointment;");
-                        String query = "INSERT INTO Appointment VALUES (";
+			System.out.print("\tOpen recurring slots of a doctor or department instead? (y/N): ");
+			if (in.readLine().trim().equalsIgnoreCase("y")) {
+				OpenRecurringSlots(esql);
+				System.out.print("\n");
+				return;
+			}
                         System.out.print("\tEnter the date of the appointment (YYYY-MM-DD): ");
-                        String adate = in.readLine();
+                        Date adate = Date.valueOf(in.readLine());
                         System.out.print("\tEnter the time slot of the appointment in military time (HH:MM-HH:MM): ");
                         String time_slot = in.readLine();
-			int h1;
-			int m1;
-			int h2;
-			int m2;
-			while(true) {
-				try {
-                                        if(time_slot.substring(2,3).equals(":")) {
-						h1 = Integer.parseInt(time_slot.substring(0,2));
-						m1 = Integer.parseInt(time_slot.substring(3,5));
-						if(time_slot.substring(8,9).equals(":")) {
-							h2 = Integer.parseInt(time_slot.substring(6,8));
-                                                	m2 = Integer.parseInt(time_slot.substring(9,11));
-						}
-						else {
-							h2 = Integer.parseInt(time_slot.substring(6,7));
-                                                	m2 = Integer.parseInt(time_slot.substring(8,10));
-						}
-					}
-					else {
-						h1 = Integer.parseInt(time_slot.substring(0,1));
-						m1 = Integer.parseInt(time_slot.substring(2,4));
-						if(time_slot.substring(7,8).equals(":")) {
-                                                        h2 = Integer.parseInt(time_slot.substring(5,7));
-                                                        m2 = Integer.parseInt(time_slot.substring(8,10));
-                                                }
-                                                else {
-                                                        h2 = Integer.parseInt(time_slot.substring(5,6));
-                                                        m2 = Integer.parseInt(time_slot.substring(7,9));
-                                                }
-					}
-                                        if(h1 >= 0 && h1 < 25 && h2 >= 0 && h2 < 25 && m1 >= 0 && m1 < 60 && m2 >= 0 && m2 < 60) {
-						break;
-					}
-					else {
-						System.out.print("\t\tPlease enter a valid time slot (HH:MM-HH:MM): ");
-                                        	time_slot = in.readLine();
-					}
-                                }
-                                catch(NumberFormatException e2) {
-                                        System.out.print("\t\tPlease enter a valid time slot (HH:MM-HH:MM): ");
-                                        time_slot = in.readLine();
-                                }
+			int slot = TimeSlot.parse(time_slot);
+			while(slot == TimeSlot.INVALID) {
+				System.out.print("\t\tPlease enter a valid time slot (HH:MM-HH:MM): ");
+				slot = TimeSlot.parse(in.readLine());
 			}
                         System.out.print("\n");
-                        query += appnt_ID + ", DATE \'" + adate + "\', \'" + time_slot + "\', \'AV\');";
-                        esql.executeUpdate(query);
+                        esql.addAppointment(adate, TimeSlot.format(slot));
                         System.out.print("Succesfully added new available Appointment!\n");
                 }
                 catch(Exception e) {
@@ -425,6 +1036,28 @@ public class DBproject{
 	}
 
 
+	/**
+	 * Method to open the slots of a recurring template, see SlotTemplate.
+	 */
+	static void OpenRecurringSlots(DBproject esql) throws Exception {
+		System.out.print("\tFor a (d)octor or a d(e)partment? ");
+		boolean department = in.readLine().trim().equalsIgnoreCase("e");
+		System.out.print(department ? "\tEnter Department ID: " : "\tEnter Doctor's ID: ");
+		int id = Integer.parseInt(in.readLine().trim());
+		System.out.print("\tEnter the weekdays (e.g. Mon-Fri or Mon,Wed,Fri): ");
+		int weekdays = SlotTemplate.parseWeekdays(in.readLine());
+		System.out.print("\tEnter the time slots, comma separated (e.g. 8:00-10:00,10:00-12:00): ");
+		String[] slots = in.readLine().split(",");
+		System.out.print("\tEnter the first date (YYYY-MM-DD): ");
+		Date from = Date.valueOf(in.readLine().trim());
+		System.out.print("\tEnter the last date (YYYY-MM-DD): ");
+		Date to = Date.valueOf(in.readLine().trim());
+		SlotTemplate template = department ? SlotTemplate.forDepartment(id, weekdays, slots, from, to)
+			: SlotTemplate.forDoctor(id, weekdays, slots, from, to);
+		System.out.print("\n");
+		System.out.print("Opened " + template.open(esql) + " available Appointment(s)!\n");
+	}
+
 	public static void MakeAppointment(DBproject esql) {//4
 		// Given a patient, a doctor and an appointment of the doctor that s/he wants to take, add an appointment to the DB
 		try{
@@ -456,43 +1089,27 @@ public class DBproject{
 			System.out.print("\tEnter Patient's address: ");
                         String address = in.readLine();
 			System.out.print("\tEnter Doctor's ID: ");
-                        String doc_id = in.readLine();
-			int rows = executeQuery("SELECT * FROM Doctor A WHERE A.doctor_ID=" + doc_id + ";");
-                        if(rows == 0) {
+                        int doc_id = Integer.parseInt(in.readLine());
+			System.out.print("\tEnter Appointment ID: ");
+			int app_id = Integer.parseInt(in.readLine());
+			// checks the doctor and the appointment at the same time
+			CompletableFuture<ReferenceCache.Doctor> doctor = esql.getAsync().findDoctor(doc_id);
+			CompletableFuture<Boolean> appointment = esql.getAsync().appointmentExists(app_id);
+                        if(doctor.join() == null) {
 				System.out.print("\tInvaild Doctor ID. Exiting...\n");
                         }
 			else {
-				System.out.print("\tEnter Appointment ID: ");
-                        	String app_id = in.readLine();
-				rows = executeQuery("SELECT * FROM Appointment A WHERE A.appnt_ID=" + app_id + ";");
-				if(rows == 0) {
+				if(!appointment.join()) {
 					System.out.print("\tInvaild Appointment ID. Exiting...\n");
 				}
 				else {
-					String query = "SELECT P.patient_ID FROM Patient P WHERE P.name=\'";
-					query += name + "\' AND P.age=" + age + " AND P.gender=\'" + gender + "\' AND P.address=\'" + address + "\';";
-					List<List<String>> list = executeQueryAndReturnResult(query);
-					boolean passedPatient = true;
-					if(list.size() == 1) {
-						int patient_ID = Integer.parseInt(list.get(0).get(0));
-						//Update patient numApp
-					}
-					else if(list.size() == 0) {
-						int patient_ID = esql.executeQuery("SELECT * FROM Patient;");
-						String query = "INSERT INTO Patient VALUES (";
-						//Insert new patient
+					// finds or adds the patient, then books as one transaction
+					String status = esql.makeAppointment(name, gender, x, address, doc_id, app_id);
+					if(status.equals("AC")) {
+						System.out.print("\tSuccesfully booked Appointment!\n");
 					}
 					else {
-						System.out.print("\tDuplicate Patient. Please Fix. Exiting...\n");
-						passedPatient = false;
-					}
-					if(passedPatient) {
-						//Update appointment status to AC if AV
-						//Update to WL if AC
-						//Update to WL if WL
-						//Error if past
-						//Update searches table and has_appointment
-						//?????????????
+						System.out.print("\tAppointment is taken. Patient added to the waitlist.\n");
 					}
 				}
                 	}
@@ -507,17 +1124,14 @@ public class DBproject{
 	public static void ListAppointmentsOfDoctor(DBproject esql) {//5
 		// For a doctor ID and a date range, find the list of active and available appointments of the doctor
 		try{
-                        String query = "SELECT A.appnt_ID AS id, A.adate AS App_Date, A.time_slot AS Time_slot, A.status AS Status FROM has_appointment H, Appointment A WHERE H.doctor_id=";
                         System.out.print("\tEnter Doctor's ID: ");
-                        String id = in.readLine();
+                        int id = Integer.parseInt(in.readLine());
                         System.out.print("\tEnter beginning of date range (YYYY-MM-DD): ");
-                        String begin = in.readLine();
+                        Date begin = Date.valueOf(in.readLine());
                         System.out.print("\tEnter end of date range (YYYY-MM-DD): ");
-                        String end = in.readLine();
+                        Date end = Date.valueOf(in.readLine());
                         System.out.print("\n");
-                        query += id + " AND H.appt_id=A.appnt_ID AND (A.adate BETWEEN ";
-			query += "\'" + begin + "\' AND \'" + end + "\') AND (A.status=\'AV\' OR A.status=\'AC\');";
-                        int rows = esql.executeQueryAndPrintResult(query);
+                        int rows = esql.executeQueryAndPrintPages(Query.LIST_APPOINTMENTS_OF_DOCTOR, PAGE_SIZE, 0, id, begin, end);
 			if(rows == 0) {
 				System.out.print("There are no available or active appointments for this doctor in the specified date range.\n");
 			}
@@ -532,15 +1146,13 @@ public class DBproject{
 	public static void ListAvailableAppointmentsOfDepartment(DBproject esql) {//6
 		// For a department name and a specific date, find the list of available appointments of the department
 		try{
-                        String query = "SELECT A.appnt_ID AS id, A.adate AS App_Date, A.time_slot AS Time_slot, A.status AS Status FROM Department DP, Doctor DC, has_appointment H, Appointment A WHERE DP.name=";
                         System.out.print("\tEnter Department Name: ");
                         String name = in.readLine();
                         System.out.print("\tEnter a date (YYYY-MM-DD): ");
-                        String date = in.readLine();
+                        Date date = Date.valueOf(in.readLine());
                         System.out.print("\n");
-                        query += "\'" + name + "\' AND DP.dept_ID=DC.did AND DC.doctor_ID=H.doctor_id AND H.appt_id=A.appnt_ID AND A.adate=";
-                        query += "\'" + date + "\' AND A.status=\'AV\';";
-                        int rows = esql.executeQueryAndPrintResult(query);
+                        int[] dids = esql.getReferenceCache().departmentsNamed(name);
+                        int rows = dids.length == 0 ? 0 : esql.executeQueryAndPrintPages(esql.availableAppointmentsQuery(), PAGE_SIZE, 0, dids, date);
                         if(rows == 0) {
                                 System.out.print("There are no available appointments for this department on the specified date.\n");
                         }
@@ -554,10 +1166,41 @@ public class DBproject{
 
 	public static void ListStatusNumberOfAppointmentsPerDoctor(DBproject esql) {//7
 		// Count number of different types of appointments per doctors and list them in descending order
+		try{
+			System.out.print("\n");
+			// grouped on the server, only one row per doctor comes back
+			int rows = esql.executeQueryAndPrintPages(esql.statusCountsQuery(), PAGE_SIZE, 0);
+			if(rows == 0) {
+				System.out.print("There are no appointments assigned to doctors.\n");
+			}
+		}
+		catch(Exception e) {
+			System.out.print("Unable to count appointments.");
+			System.err.println (e.getMessage());
+		}
+		System.out.print("\n");
 	}
 
 	
 	public static void FindPatientsCountWithStatus(DBproject esql) {//8
 		// Find how many patients per doctor there are with a given status (i.e. PA, AC, AV, WL) and list that number per doctor.
+		try{
+			System.out.print("\tEnter appointment status (PA, AC, AV or WL): ");
+			String status = in.readLine().trim().toUpperCase();
+			while(!(status.equals("PA") || status.equals("AC") || status.equals("AV") || status.equals("WL"))) {
+				System.out.print("\t\tPlease enter PA, AC, AV or WL: ");
+				status = in.readLine().trim().toUpperCase();
+			}
+			System.out.print("\n");
+			int rows = esql.executeQueryAndPrintPages(esql.patientsWithStatusQuery(), PAGE_SIZE, 0, status);
+			if(rows == 0) {
+				System.out.print("There are no patients with appointments of this status.\n");
+			}
+		}
+		catch(Exception e) {
+			System.out.print("Unable to count patients.");
+			System.err.println (e.getMessage());
+		}
+		System.out.print("\n");
 	}
 }
@@ -0,0 +1,73 @@
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class hands out new primary keys for the Doctor, Patient and
+ * Appointment tables. Keys are taken from the Postgres sequences created in
+ * create.sql; each nextval call reserves a whole block of BLOCK_SIZE keys
+ * which is then handed out from memory, one block per table.
+ *
+ */
+
+public class IdAllocator{
+	//sequence names, see the SEQUENCES section of create.sql
+	public static final String DOCTOR = "doctor_id_seq";
+	public static final String PATIENT = "patient_id_seq";
+	public static final String APPOINTMENT = "appnt_id_seq";
+
+	//must match the INCREMENT BY of the sequences above
+	public static final int BLOCK_SIZE = 50;
+
+	//reference to the database the sequences live in
+	private final DBproject _esql;
+	//cached block per sequence name
+	private final Map<String, Block> _blocks = new HashMap<String, Block>();
+
+	public IdAllocator(DBproject esql){
+		this._esql = esql;
+	}
+
+	/**
+	 * Method to return the next free key of a sequence. Only goes to the DBMS
+	 * when the cached block of the sequence is used up.
+	 *
+	 * @param sequence name of the DB sequence
+	 * @return a key no other client has been or will be given
+	 * @throws java.sql.SQLException when failed to reserve a new block
+	 */
+	public int next(String sequence) throws SQLException {
+		Block block;
+		synchronized (this._blocks){
+			block = this._blocks.get(sequence);
+			if (block == null){
+				block = new Block();
+				this._blocks.put(sequence, block);
+			}//end if
+		}
+		//one lock per table, so Patient inserts never wait on Appointment ones
+		synchronized (block){
+			if (block.next >= block.limit){
+				int start = this._esql.getNextSeqVal(sequence);
+				block.next = start;
+				block.limit = start + BLOCK_SIZE;
+			}//end if
+			return block.next++;
+		}
+	}//end next
+
+	/**
+	 * Method to drop every cached block, e.g. after the sequences were reset.
+	 * Unused keys of the dropped blocks are never handed out.
+	 */
+	public void reset(){
+		synchronized (this._blocks){
+			this._blocks.clear();
+		}
+	}//end reset
+
+	private static class Block{
+		int next = 0;
+		int limit = 0;
+	}
+}//end IdAllocator
@@ -0,0 +1,83 @@
+import java.io.File;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * This program measures the lookups of menu options 5 and 6 before and after
+ * the index migrations. It fills the database through WorkloadGenerator (by
+ * default 1,000,000 appointments), times each query with random arguments, applies
+ * the pending migrations and times them again.
+ *
+ * It TRUNCATEs every table, so run it against a scratch database freshly
+ * created with create.sql and no migrations applied:
+ *
+ *   java -cp lib/*:bin/ IndexBenchmark <dbname> <port> <user> [appointments]
+ *
+ */
+
+public class IndexBenchmark{
+	static final int WARMUP = 20;
+	static final int ITERATIONS = 200;
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3){
+			System.err.println("Usage: java [-classpath <classpath>] IndexBenchmark <dbname> <port> <user> [appointments]");
+			return;
+		}//end if
+		WorkloadGenerator gen = new WorkloadGenerator();
+		gen.appointments = args.length > 3 ? Integer.parseInt(args[3]) : 1000000;
+		gen.doctors = Math.max(100, gen.appointments / 500);
+		gen.patients = Math.max(1000, gen.appointments / 10);
+		DBproject esql = new DBproject(args[0], args[1], args[2], "");
+		try{
+			Migrator migrator = new Migrator(esql, new File(Migrator.DEFAULT_DIR));
+			if (migrator.currentVersion() > 0){
+				System.err.println("Migrations are already applied, recreate the database with create.sql first");
+				return;
+			}//end if
+			gen.generate(esql);
+
+			System.out.println("-- before indexes --");
+			run(esql, gen);
+			migrator.migrate();
+			System.out.println("-- after indexes --");
+			run(esql, gen);
+		}finally{
+			esql.cleanup();
+		}
+	}
+
+	private static void run(DBproject esql, WorkloadGenerator gen) throws SQLException {
+		Random random = new Random(42);
+		long[] nanos = new long[ITERATIONS];
+		for (int i = -WARMUP; i < ITERATIONS; ++i){
+			int first = random.nextInt(gen.days - 30);
+			Date begin = WorkloadGenerator.day(first);
+			Date end = WorkloadGenerator.day(first + 30);
+			long start = System.nanoTime();
+			esql.executeQuery(Query.LIST_APPOINTMENTS_OF_DOCTOR, random.nextInt(gen.doctors), begin, end);
+			if (i >= 0) nanos[i] = System.nanoTime() - start;
+		}//end for
+		report("5. appointments of doctor", nanos);
+		for (int i = -WARMUP; i < ITERATIONS; ++i){
+			String name = WorkloadGenerator.DEPARTMENTS[random.nextInt(WorkloadGenerator.DEPARTMENTS.length)];
+			long start = System.nanoTime();
+			int[] dids = esql.getReferenceCache().departmentsNamed(name);
+			esql.executeQuery(esql.availableAppointmentsQuery(), dids, WorkloadGenerator.day(random.nextInt(gen.days)));
+			if (i >= 0) nanos[i] = System.nanoTime() - start;
+		}//end for
+		report("6. available of department", nanos);
+	}
+
+	static void report(String name, long[] nanos){
+		long[] sorted = nanos.clone();
+		Arrays.sort(sorted);
+		double mean = 0;
+		for (long n : sorted) mean += n;
+		mean /= sorted.length;
+		System.out.printf("%-28s mean %8.3f ms  p50 %8.3f ms  p99 %8.3f ms%n", name,
+			mean / 1e6, sorted[sorted.length / 2] / 1e6, sorted[(int) Math.ceil(sorted.length * 0.99) - 1] / 1e6);
+	}
+}//end IndexBenchmark
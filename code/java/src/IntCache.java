@@ -0,0 +1,150 @@
+import java.util.Arrays;
+
+/**
+ * This class is a size-bounded map from int keys to objects. Keys live in
+ * an int array with open addressing, so lookups neither box the key nor
+ * allocate. When the map is full the CLOCK algorithm evicts an entry that
+ * was not read since the hand last passed it, an approximation of least
+ * recently used that needs one flag per entry instead of a linked list.
+ *
+ */
+
+public class IntCache<V>{
+	private final int _capacity;
+	private final int[] _keys;
+	private final Object[] _values;
+	//set on every read, cleared as the clock hand passes
+	private final boolean[] _referenced;
+	private final int _mask;
+	private final int _shift;
+	private int _size = 0;
+	private int _hand = 0;
+	//bumped by every removal, see put
+	private long _generation = 0;
+	private long _evictions = 0;
+
+	public IntCache(int capacity){
+		if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive");
+		this._capacity = capacity;
+		// at most half full, so probe sequences stay short
+		int slots = Integer.highestOneBit(capacity * 2 - 1) << 1;
+		this._keys = new int[slots];
+		this._values = new Object[slots];
+		this._referenced = new boolean[slots];
+		this._mask = slots - 1;
+		this._shift = 32 - Integer.numberOfTrailingZeros(slots);
+	}
+
+	/**
+	 * Method to get the value of a key.
+	 *
+	 * @return the value, or null when the key is not cached
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized V get(int key){
+		int i = find(key);
+		if (i < 0) return null;
+		this._referenced[i] = true;
+		return (V) this._values[i];
+	}
+
+	/**
+	 * Method to get the generation to pass to put, read before loading the
+	 * value from the database.
+	 */
+	public synchronized long generation(){
+		return this._generation;
+	}
+
+	/**
+	 * Method to cache a value loaded from the database. The value is dropped
+	 * when anything was removed since generation was read, as it may have
+	 * been loaded before the change that removed it.
+	 *
+	 * @param generation what generation() returned before the load
+	 */
+	public synchronized void put(int key, V value, long generation){
+		if (value == null) throw new NullPointerException();
+		if (generation != this._generation) return;
+		int i = find(key);
+		if (i < 0){
+			if (this._size == this._capacity) evict();
+			i = slot(key);
+			while (this._values[i] != null) i = (i + 1) & this._mask;
+			this._keys[i] = key;
+			++this._size;
+		}//end if
+		this._values[i] = value;
+		this._referenced[i] = false;
+	}//end put
+
+	public synchronized void remove(int key){
+		++this._generation;
+		int i = find(key);
+		if (i >= 0) delete(i);
+	}
+
+	public synchronized void clear(){
+		++this._generation;
+		Arrays.fill(this._values, null);
+		Arrays.fill(this._referenced, false);
+		this._size = 0;
+	}
+
+	public synchronized int size(){
+		return this._size;
+	}
+
+	public synchronized long evictions(){
+		return this._evictions;
+	}
+
+	private int slot(int key){
+		// Fibonacci hashing, the top bits spread sequential IDs over the table
+		return (key * 0x9E3779B9) >>> this._shift;
+	}
+
+	private int find(int key){
+		for (int i = slot(key); this._values[i] != null; i = (i + 1) & this._mask){
+			if (this._keys[i] == key) return i;
+		}//end for
+		return -1;
+	}
+
+	private void evict(){
+		while (true){
+			this._hand = (this._hand + 1) & this._mask;
+			if (this._values[this._hand] == null) continue;
+			if (this._referenced[this._hand]){
+				this._referenced[this._hand] = false;
+				continue;
+			}//end if
+			delete(this._hand);
+			++this._evictions;
+			return;
+		}//end while
+	}
+
+	/*
+	 * Removes slot i and shifts back the entries of its probe sequence, so
+	 * find never stops at a hole left in the middle of one.
+	 */
+	private void delete(int i){
+		int j = i;
+		while (true){
+			j = (j + 1) & this._mask;
+			if (this._values[j] == null) break;
+			int home = slot(this._keys[j]);
+			// entry j may move to i unless its home lies cyclically in (i, j]
+			boolean stays = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+			if (stays) continue;
+			this._keys[i] = this._keys[j];
+			this._values[i] = this._values[j];
+			this._referenced[i] = this._referenced[j];
+			i = j;
+		}//end while
+		this._values[i] = null;
+		this._referenced[i] = false;
+		--this._size;
+	}
+}//end IntCache
@@ -0,0 +1,248 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This program measures every menu operation against a running Postgres,
+ * normally one filled by WorkloadGenerator. For each operation a number of
+ * threads call it back to back with random valid arguments, first for a
+ * warmup period and then for the measured period, and the throughput and
+ * p50/p99 latency of the measured calls are reported.
+ *
+ *   java -cp lib/*:bin/ MenuBenchmark <dbname> <port> <user> [name=value ...]
+ *
+ * where name is threads, warmup (seconds), seconds or ops (e.g. ops=4,5,6).
+ * The write operations 1-4 add rows, so use a scratch database.
+ *
+ */
+
+public class MenuBenchmark{
+	/**
+	 * One menu operation called with random arguments.
+	 */
+	interface Op{
+		void run(DBproject esql, Sizes sizes, Random random) throws Exception;
+	}
+
+	/**
+	 * Sizes of the database being measured, read once at start.
+	 */
+	static class Sizes{
+		int doctors;
+		int patients;
+		int appointments;
+		int departmentIds;
+		int days;
+		String[] departments;
+	}
+
+	static final String[] NAMES = {
+		"1. Add Doctor",
+		"2. Add Patient",
+		"3. Add Appointment",
+		"4. Make an Appointment",
+		"5. Appointments of doctor",
+		"6. Available of department",
+		"7. Status counts per doctor",
+		"8. Patients with status",
+	};
+
+	static final Op[] OPS = {
+		new Op(){
+			public void run(DBproject esql, Sizes s, Random r) throws Exception {
+				esql.addDoctor("Bench Doctor", "Surgeon", r.nextInt(s.departmentIds));
+			}
+		},
+		new Op(){
+			public void run(DBproject esql, Sizes s, Random r) throws Exception {
+				esql.addPatient("Bench Patient", r.nextBoolean() ? "F" : "M", r.nextInt(90), "1 Bench Street");
+			}
+		},
+		new Op(){
+			public void run(DBproject esql, Sizes s, Random r) throws Exception {
+				esql.addAppointment(WorkloadGenerator.day(r.nextInt(s.days)), WorkloadGenerator.TIME_SLOTS[r.nextInt(4)]);
+			}
+		},
+		new Op(){
+			public void run(DBproject esql, Sizes s, Random r) throws Exception {
+				int p = r.nextInt(s.patients);
+				int a = r.nextInt(s.appointments);
+				try{
+					esql.makeAppointment(WorkloadGenerator.patientName(p), WorkloadGenerator.patientGender(p), WorkloadGenerator.patientAge(p),
+						WorkloadGenerator.patientAddress(p), WorkloadGenerator.doctorOf(a, s.doctors), a);
+				}catch (IllegalStateException e){
+					// past appointment or already booked, still a full booking attempt.
+				}//end try
+			}
+		},
+		new Op(){
+			public void run(DBproject esql, Sizes s, Random r) throws Exception {
+				int first = r.nextInt(Math.max(1, s.days - 30));
+				esql.executeQuery(Query.LIST_APPOINTMENTS_OF_DOCTOR, r.nextInt(s.doctors), WorkloadGenerator.day(first), WorkloadGenerator.day(first + 30));
+			}
+		},
+		new Op(){
+			public void run(DBproject esql, Sizes s, Random r) throws Exception {
+				esql.listAvailableAppointmentsOfDepartment(s.departments[r.nextInt(s.departments.length)], WorkloadGenerator.day(r.nextInt(s.days)));
+			}
+		},
+		new Op(){
+			public void run(DBproject esql, Sizes s, Random r) throws Exception {
+				esql.executeQuery(esql.statusCountsQuery());
+			}
+		},
+		new Op(){
+			public void run(DBproject esql, Sizes s, Random r) throws Exception {
+				esql.executeQuery(esql.patientsWithStatusQuery(), ColumnarResult.STATUSES[r.nextInt(ColumnarResult.STATUSES.length)]);
+			}
+		},
+	};
+
+	int threads = 4;
+	int warmup = 5;
+	int seconds = 20;
+	boolean[] selected = new boolean[OPS.length];
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3){
+			System.err.println("Usage: java [-classpath <classpath>] MenuBenchmark <dbname> <port> <user> [name=value ...]");
+			return;
+		}//end if
+		MenuBenchmark bench = new MenuBenchmark();
+		Arrays.fill(bench.selected, true);
+		for (int i = 3; i < args.length; ++i){
+			bench.set(args[i]);
+		}//end for
+		DBproject esql = new DBproject(args[0], args[1], args[2], "");
+		try{
+			Sizes sizes = readSizes(esql);
+			System.out.printf("%-28s %12s %10s %10s %8s%n", "operation", "ops/s", "p50 ms", "p99 ms", "errors");
+			for (int op = 0; op < OPS.length; ++op){
+				if (bench.selected[op]) bench.measure(esql, sizes, op);
+			}//end for
+		}finally{
+			esql.cleanup();
+		}
+	}
+
+	void set(String assignment){
+		int eq = assignment.indexOf('=');
+		if (eq < 0) throw new IllegalArgumentException("Expected name=value: " + assignment);
+		String name = assignment.substring(0, eq);
+		String value = assignment.substring(eq + 1);
+		if (name.equals("threads")) this.threads = Integer.parseInt(value);
+		else if (name.equals("warmup")) this.warmup = Integer.parseInt(value);
+		else if (name.equals("seconds")) this.seconds = Integer.parseInt(value);
+		else if (name.equals("ops")){
+			Arrays.fill(this.selected, false);
+			for (String op : value.split(",")){
+				this.selected[Integer.parseInt(op.trim()) - 1] = true;
+			}//end for
+		}else throw new IllegalArgumentException("Unknown setting " + name);
+	}
+
+	static Sizes readSizes(DBproject esql) throws SQLException {
+		Sizes s = new Sizes();
+		s.doctors = maxId(esql, "SELECT COALESCE(MAX(doctor_ID), -1) + 1 FROM Doctor");
+		s.patients = maxId(esql, "SELECT COALESCE(MAX(patient_ID), -1) + 1 FROM Patient");
+		s.appointments = maxId(esql, "SELECT COALESCE(MAX(appnt_ID), -1) + 1 FROM Appointment");
+		s.departmentIds = maxId(esql, "SELECT COALESCE(MAX(dept_ID), -1) + 1 FROM Department");
+		s.days = Math.max(1, maxId(esql, "SELECT COALESCE(MAX(adate) - ?::date, 0) + 1 FROM Appointment", WorkloadGenerator.FIRST_DAY));
+		List<List<String>> names = esql.executeQueryAndReturnResult("SELECT DISTINCT name FROM Department");
+		s.departments = new String[names.size()];
+		for (int i = 0; i < s.departments.length; ++i){
+			s.departments[i] = names.get(i).get(0);
+		}//end for
+		if (s.doctors == 0 || s.patients == 0 || s.appointments == 0 || s.departments.length == 0){
+			throw new IllegalStateException("The database is empty, run WorkloadGenerator first");
+		}//end if
+		return s;
+	}
+
+	private static int maxId(DBproject esql, String sql, Object... params) throws SQLException {
+		return Integer.parseInt(esql.executeQueryAndReturnResult(sql, params).get(0).get(0));
+	}
+
+	/**
+	 * Method to run one operation from all threads for the warmup and then
+	 * the measured period, and print its line of the report.
+	 */
+	void measure(final DBproject esql, final Sizes sizes, final int op) throws Exception {
+		ExecutorService workers = Executors.newFixedThreadPool(this.threads);
+		try{
+			run(workers, esql, sizes, op, this.warmup);
+			List<Result> results = run(workers, esql, sizes, op, this.seconds);
+			long calls = 0;
+			long errors = 0;
+			for (Result r : results){
+				calls += r.count;
+				errors += r.errors;
+			}//end for
+			long[] all = new long[(int) calls];
+			int n = 0;
+			for (Result r : results){
+				System.arraycopy(r.nanos, 0, all, n, r.count);
+				n += r.count;
+			}//end for
+			Arrays.sort(all);
+			System.out.printf("%-28s %12.1f %10.3f %10.3f %8d%n", NAMES[op], calls / (double) this.seconds,
+				percentile(all, 0.50) / 1e6, percentile(all, 0.99) / 1e6, errors);
+		}finally{
+			workers.shutdownNow();
+		}
+	}
+
+	private List<Result> run(ExecutorService workers, final DBproject esql, final Sizes sizes, final int op, int secs) throws Exception {
+		final long deadline = System.nanoTime() + secs * 1000000000L;
+		List<Future<Result>> futures = new ArrayList<Future<Result>>();
+		for (int t = 0; t < this.threads; ++t){
+			final long seed = 31L * op + t;
+			futures.add(workers.submit(new Callable<Result>(){
+				public Result call(){
+					Random random = new Random(seed);
+					Result result = new Result();
+					long now;
+					while ((now = System.nanoTime()) < deadline){
+						try{
+							OPS[op].run(esql, sizes, random);
+						}catch (Exception e){
+							++result.errors;
+						}//end try
+						result.add(System.nanoTime() - now);
+					}//end while
+					return result;
+				}
+			}));
+		}//end for
+		List<Result> results = new ArrayList<Result>();
+		for (Future<Result> f : futures){
+			results.add(f.get());
+		}//end for
+		return results;
+	}
+
+	static long percentile(long[] sorted, double p){
+		if (sorted.length == 0) return 0;
+		return sorted[Math.max(0, (int) Math.ceil(sorted.length * p) - 1)];
+	}
+
+	/**
+	 * Latencies of the calls of one thread.
+	 */
+	static class Result{
+		long[] nanos = new long[1024];
+		int count;
+		long errors;
+
+		void add(long n){
+			if (this.count == this.nanos.length) this.nanos = Arrays.copyOf(this.nanos, this.count * 2);
+			this.nanos[this.count++] = n;
+		}
+	}
+}//end MenuBenchmark
@@ -0,0 +1,417 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.ObjectName;
+
+/**
+ * This class times everything DBproject sends to Postgres. Every execute*
+ * call, transaction and service request is recorded under its operation
+ * name (the Query name, "sql" for ad-hoc strings, "transaction", or
+ * "service:" plus the request) with a latency histogram, the rows and bytes
+ * returned, the time spent waiting for a pooled connection, and errors.
+ *
+ * Statements slower than -Ddbproject.slowQueryMs (default 500) are written to
+ * the slow-query log, -Ddbproject.slowQueryLog=<file> or standard error,
+ * with their SQL and the types of their parameters; the values, which hold
+ * patient names and addresses, only with -Ddbproject.slowQueryParams=true.
+ * With -Ddbproject.slowQueryExplain=true the plan is logged too: a plain
+ * SELECT is run again in the background under EXPLAIN (ANALYZE, BUFFERS)
+ * inside a read-only, rolled back transaction, anything else that could
+ * write, lock rows, take sequence values or notify is only EXPLAINed.
+ *
+ * The numbers are served by METRICS in service mode and over JMX as
+ * DBproject:type=Metrics.
+ *
+ */
+
+public class Metrics implements MetricsMBean{
+	static final long SLOW_QUERY_MS = Long.getLong("dbproject.slowQueryMs", 500L);
+	static final boolean SLOW_QUERY_EXPLAIN = Boolean.getBoolean("dbproject.slowQueryExplain");
+	//logs parameter values rather than their types
+	static final boolean SLOW_QUERY_PARAMS = Boolean.getBoolean("dbproject.slowQueryParams");
+	static final String SLOW_QUERY_LOG = System.getProperty("dbproject.slowQueryLog");
+	//slow statements waiting for EXPLAIN, more are logged without a plan
+	private static final int EXPLAIN_BACKLOG = 16;
+
+	/**
+	 * Latency histogram in microseconds in the manner of HdrHistogram:
+	 * exact below 128 us, then 64 linear buckets per power of two, so any
+	 * percentile is within 1.6% and recording is one atomic increment.
+	 */
+	static final class Histogram{
+		private static final int LINEAR = 128;
+		private static final int SUB_BUCKETS = 64;
+		private static final int OCTAVES = 40;
+
+		private final AtomicLongArray _counts = new AtomicLongArray(LINEAR + OCTAVES * SUB_BUCKETS);
+		private final AtomicLong _count = new AtomicLong();
+		private final AtomicLong _max = new AtomicLong();
+
+		void record(long micros){
+			if (micros < 0) micros = 0;
+			this._counts.incrementAndGet(index(micros));
+			this._count.incrementAndGet();
+			long max;
+			while (micros > (max = this._max.get())){
+				if (this._max.compareAndSet(max, micros)) break;
+			}//end while
+		}
+
+		static int index(long v){
+			if (v < LINEAR) return (int) v;
+			// v lies in [64 << shift, 128 << shift)
+			int shift = 63 - Long.numberOfLeadingZeros(v) - 6;
+			if (shift > OCTAVES) return LINEAR + OCTAVES * SUB_BUCKETS - 1;
+			return LINEAR + (shift - 1) * SUB_BUCKETS + (int) (v >>> shift) - SUB_BUCKETS;
+		}
+
+		//largest value counted in bucket i
+		static long highest(int i){
+			if (i < LINEAR) return i;
+			int shift = (i - LINEAR) / SUB_BUCKETS + 1;
+			long sub = (i - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+			return ((sub + 1) << shift) - 1;
+		}
+
+		long count(){
+			return this._count.get();
+		}
+
+		long max(){
+			return this._max.get();
+		}
+
+		long percentile(double p){
+			long n = this._count.get();
+			if (n == 0) return 0;
+			long rank = Math.max(1, (long) Math.ceil(p * n));
+			long seen = 0;
+			for (int i = 0; i < this._counts.length(); ++i){
+				seen += this._counts.get(i);
+				if (seen >= rank) return Math.min(highest(i), this._max.get());
+			}//end for
+			return this._max.get();
+		}
+	}//end Histogram
+
+	/**
+	 * Totals of one operation.
+	 */
+	static final class Stats{
+		final Histogram latency = new Histogram();
+		final AtomicLong errors = new AtomicLong();
+		final AtomicLong rows = new AtomicLong();
+		final AtomicLong bytes = new AtomicLong();
+		final AtomicLong waitNanos = new AtomicLong();
+	}
+
+	/**
+	 * One timed execution. It starts before the connection is borrowed and
+	 * is recorded by end(), as an error unless done() was called.
+	 */
+	public final class Sample{
+		private final String _op;
+		private final String _sql;
+		private final Object[] _params;
+		private final long _start = System.nanoTime();
+		private long _acquired = 0;
+		private long _paused = 0;
+		private long _rows = -1;
+		private long _bytes = 0;
+
+		Sample(String op, String sql, Object[] params){
+			this._op = op;
+			this._sql = sql;
+			this._params = params;
+		}
+
+		public void acquired(){
+			this._acquired = System.nanoTime();
+		}
+
+		//time spent waiting for the user, e.g. between pages, is not latency
+		public void paused(long nanos){
+			this._paused += nanos;
+		}
+
+		public void done(long rows, long bytes){
+			this._rows = rows;
+			this._bytes = bytes;
+		}
+
+		public void end(){
+			record(this, System.nanoTime());
+		}
+	}//end Sample
+
+	private final DBproject _esql;
+	private final ConcurrentHashMap<String, Stats> _stats = new ConcurrentHashMap<String, Stats>();
+	private volatile Histogram _poolWait = new Histogram();
+	private final AtomicLong _slowQueries = new AtomicLong();
+	private final PrintWriter _log;
+	//false when logging to standard error
+	private final boolean _ownsLog;
+	private final ThreadPoolExecutor _explainer;
+	private ObjectName _name;
+
+	public Metrics(DBproject esql){
+		this._esql = esql;
+		PrintWriter log = null;
+		if (SLOW_QUERY_LOG != null){
+			try{
+				log = new PrintWriter(new FileWriter(SLOW_QUERY_LOG, true), true);
+			}catch (IOException e){
+				System.err.println("Cannot open slow query log " + SLOW_QUERY_LOG + ": " + e.getMessage());
+			}//end try
+		}//end if
+		this._ownsLog = log != null;
+		this._log = log != null ? log : new PrintWriter(System.err, true);
+		this._explainer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(EXPLAIN_BACKLOG),
+			new ThreadFactory(){
+				public Thread newThread(Runnable r){
+					Thread t = new Thread(r, "slow-query-explain");
+					t.setDaemon(true);
+					return t;
+				}
+			}, new ThreadPoolExecutor.DiscardPolicy());
+		register();
+	}
+
+	private void register(){
+		try{
+			ObjectName name = new ObjectName("DBproject:type=Metrics");
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+			this._name = name;
+		}catch (Exception e){
+			// another DBproject in this JVM already serves it
+		}//end try
+	}
+
+	/**
+	 * Method to start timing a statement.
+	 *
+	 * @param named the named query, or null for an ad-hoc SQL string
+	 */
+	public Sample start(Query named, String sql, Object[] params){
+		return new Sample(named != null ? named.name() : "sql", sql, params);
+	}
+
+	/**
+	 * Method to start timing an operation that is not a single statement.
+	 */
+	public Sample start(String op){
+		return new Sample(op, null, null);
+	}
+
+	private Stats stats(String op){
+		Stats s = this._stats.get(op);
+		if (s == null){
+			Stats created = new Stats();
+			s = this._stats.putIfAbsent(op, created);
+			if (s == null) s = created;
+		}//end if
+		return s;
+	}
+
+	private void record(Sample sample, long end){
+		long nanos = end - sample._start - sample._paused;
+		Stats s = stats(sample._op);
+		s.latency.record(nanos / 1000);
+		if (sample._rows < 0){
+			s.errors.incrementAndGet();
+		}else{
+			s.rows.addAndGet(sample._rows);
+			s.bytes.addAndGet(sample._bytes);
+		}//end if
+		if (sample._acquired != 0){
+			long wait = sample._acquired - sample._start;
+			s.waitNanos.addAndGet(wait);
+			this._poolWait.record(wait / 1000);
+		}//end if
+		if (sample._sql != null && nanos >= SLOW_QUERY_MS * 1000000L) slow(sample, nanos);
+	}
+
+	private void slow(final Sample sample, long nanos){
+		this._slowQueries.incrementAndGet();
+		synchronized (this._log){
+			this._log.printf("%s slow %s %.1f ms rows=%d: %s params=%s%n", LocalDateTime.now(), sample._op, nanos / 1e6,
+				sample._rows, sample._sql, SLOW_QUERY_PARAMS ? Arrays.deepToString(sample._params) : types(sample._params));
+		}
+		if (SLOW_QUERY_EXPLAIN && explainable(sample._sql)){
+			this._explainer.execute(new Runnable(){
+				public void run(){ explain(sample); }
+			});
+		}//end if
+	}
+
+	/*
+	 * [String, Integer, ...] for the values of a statement.
+	 */
+	private static String types(Object[] params){
+		if (params == null) return "[]";
+		String[] types = new String[params.length];
+		for (int i = 0; i < params.length; ++i){
+			types[i] = params[i] == null ? "null" : params[i].getClass().getSimpleName();
+		}//end for
+		return Arrays.toString(types);
+	}
+
+	private static String head(String sql){
+		String head = sql.trim();
+		int space = head.indexOf(' ');
+		return (space < 0 ? head : head.substring(0, space)).toUpperCase();
+	}
+
+	private static boolean explainable(String sql){
+		String head = head(sql);
+		return head.equals("SELECT") || head.equals("WITH") || head.equals("INSERT") || head.equals("UPDATE") || head.equals("DELETE");
+	}
+
+	/*
+	 * Whether running the statement again can only read: a SELECT that
+	 * locks no rows. Functions it calls may still write, which the read-only
+	 * transaction refuses.
+	 */
+	private static boolean analyzable(String sql){
+		String upper = sql.toUpperCase();
+		return head(sql).equals("SELECT") && !upper.matches("(?s).*\\bFOR\\s+(UPDATE|SHARE|NO\\s+KEY\\s+UPDATE|KEY\\s+SHARE)\\b.*");
+	}
+
+	/*
+	 * Gets the plan of a slow statement. ANALYZE executes it, so only plain
+	 * SELECTs are analyzed, in a read-only transaction that is always rolled
+	 * back; the rest, and SELECTs the transaction refused, are planned only.
+	 */
+	private void explain(Sample sample){
+		StringBuilder plan = new StringBuilder();
+		ConnectionPool.PooledConnection pc = null;
+		try{
+			pc = this._esql.getPool().acquire();
+			if (analyzable(sample._sql)){
+				try{
+					plan(pc, "EXPLAIN (ANALYZE, BUFFERS) ", sample, plan);
+				}catch (SQLException e){
+					plan.setLength(0);
+					plan(pc, "EXPLAIN ", sample, plan);
+				}//end try
+			}else{
+				plan(pc, "EXPLAIN ", sample, plan);
+			}//end if
+		}catch (SQLException e){
+			plan.append("\tEXPLAIN failed: ").append(e.getMessage()).append('\n');
+		}finally{
+			if (pc != null) this._esql.getPool().release(pc);
+		}
+		synchronized (this._log){
+			this._log.printf("%s plan of slow %s:%n%s", LocalDateTime.now(), sample._op, plan);
+		}
+	}//end explain
+
+	private static void plan(ConnectionPool.PooledConnection pc, String explain, Sample sample, StringBuilder plan) throws SQLException {
+		pc.connection.setAutoCommit(false);
+		try{
+			Statement set = pc.connection.createStatement();
+			set.execute("SET TRANSACTION READ ONLY");
+			set.close();
+			PreparedStatement stmt = pc.connection.prepareStatement(explain + sample._sql);
+			try{
+				DBproject.bindParams(pc, stmt, sample._params);
+				ResultSet rs = stmt.executeQuery();
+				while (rs.next()){
+					plan.append('\t').append(rs.getString(1)).append('\n');
+				}//end while
+				rs.close();
+			}finally{
+				stmt.close();
+			}
+		}finally{
+			pc.connection.rollback();
+			pc.connection.setAutoCommit(true);
+		}
+	}
+
+	/**
+	 * Method to list one row per operation: name, calls, errors, rows,
+	 * bytes, mean pool wait and the p50, p90, p99 and max latency, times in
+	 * milliseconds.
+	 */
+	public List<List<String>> table(){
+		List<List<String>> rows = new ArrayList<List<String>>();
+		for (Map.Entry<String, Stats> e : new TreeMap<String, Stats>(this._stats).entrySet()){
+			Stats s = e.getValue();
+			Histogram h = s.latency;
+			long calls = h.count();
+			rows.add(Arrays.asList(e.getKey(), Long.toString(calls), Long.toString(s.errors.get()), Long.toString(s.rows.get()),
+				Long.toString(s.bytes.get()), millis(calls == 0 ? 0 : s.waitNanos.get() / calls / 1000),
+				millis(h.percentile(0.50)), millis(h.percentile(0.90)), millis(h.percentile(0.99)), millis(h.max())));
+		}//end for
+		Histogram w = this._poolWait;
+		rows.add(Arrays.asList("pool wait", Long.toString(w.count()), "0", "0", "0", "",
+			millis(w.percentile(0.50)), millis(w.percentile(0.90)), millis(w.percentile(0.99)), millis(w.max())));
+		return rows;
+	}
+
+	private static String millis(long micros){
+		return String.format("%.3f", micros / 1000.0);
+	}
+
+	public String getReport(){
+		StringBuilder sb = new StringBuilder();
+		String format = "%-40s %9s %7s %10s %12s %9s %9s %9s %9s %9s%n";
+		sb.append(String.format(format, "operation", "calls", "errors", "rows", "bytes", "wait_ms", "p50_ms", "p90_ms", "p99_ms", "max_ms"));
+		for (List<String> row : table()){
+			sb.append(String.format(format, row.toArray()));
+		}//end for
+		sb.append("slow queries: ").append(this._slowQueries.get()).append('\n');
+		return sb.toString();
+	}
+
+	public long getSlowQueries(){
+		return this._slowQueries.get();
+	}
+
+	public double p99Millis(String operation){
+		Stats s = this._stats.get(operation);
+		return s == null ? 0 : s.latency.percentile(0.99) / 1000.0;
+	}
+
+	public void reset(){
+		this._stats.clear();
+		this._poolWait = new Histogram();
+		this._slowQueries.set(0);
+	}
+
+	/**
+	 * Method to stop the EXPLAIN thread, close the log and leave JMX.
+	 */
+	public void close(){
+		this._explainer.shutdownNow();
+		if (this._ownsLog) this._log.close();
+		if (this._name != null){
+			try{
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(this._name);
+			}catch (Exception e){
+				// already gone
+			}//end try
+		}//end if
+	}
+}//end Metrics
@@ -0,0 +1,17 @@
+/**
+ * This interface is the JMX view of Metrics, registered as
+ * DBproject:type=Metrics so jconsole or any JMX poller can read it.
+ *
+ */
+
+public interface MetricsMBean{
+	//one line per operation, the same text as METRICS in service mode
+	String getReport();
+
+	long getSlowQueries();
+
+	//p99 latency in milliseconds of one operation, e.g. service:MAKE_APPOINTMENT
+	double p99Millis(String operation);
+
+	void reset();
+}//end MetricsMBean
@@ -0,0 +1,112 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class brings a database created by create.sql up to the latest schema
+ * version. Migrations are the files V<version>__<name>.sql of the migrations
+ * directory; each pending one runs in its own transaction, in version order,
+ * and is recorded in the schema_version table.
+ *
+ */
+
+public class Migrator{
+	//relative to code/java, where run.sh starts the program
+	public static final String DEFAULT_DIR = "../sql/migrations";
+
+	private static final Pattern FILE_NAME = Pattern.compile("V(\\d+)__(\\w+)\\.sql");
+
+	private final DBproject _esql;
+	private final File _dir;
+
+	public Migrator(DBproject esql, File dir){
+		this._esql = esql;
+		this._dir = dir;
+	}
+
+	/**
+	 * Method to apply every migration not yet recorded in schema_version.
+	 *
+	 * @return the number of migrations applied
+	 * @throws java.sql.SQLException when a migration failed, later ones are not run
+	 * @throws java.io.IOException when a migration file cannot be read
+	 */
+	public int migrate() throws SQLException, IOException {
+		this._esql.executeUpdate("CREATE TABLE IF NOT EXISTS schema_version (version INTEGER NOT NULL, name VARCHAR(128) NOT NULL, " +
+			"applied_at TIMESTAMP NOT NULL DEFAULT now(), PRIMARY KEY (version))");
+		Set<Integer> applied = new HashSet<Integer>();
+		for (List<String> row : this._esql.executeQueryAndReturnResult("SELECT version FROM schema_version")){
+			applied.add(Integer.valueOf(row.get(0)));
+		}//end for
+
+		int count = 0;
+		for (final File file : pending()){
+			Matcher m = FILE_NAME.matcher(file.getName());
+			m.matches();
+			final int version = Integer.parseInt(m.group(1));
+			final String name = m.group(2);
+			if (applied.contains(version)) continue;
+
+			final String sql = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+			System.out.print("Applying migration " + file.getName() + "...");
+			this._esql.inTransaction(new DBproject.Work<Void>(){
+				public Void run(ConnectionPool.PooledConnection pc) throws SQLException {
+					Statement stmt = pc.connection.createStatement();
+					try{
+						stmt.execute(sql);
+					}finally{
+						stmt.close();
+					}
+					DBproject.bind(pc, Query.ADD_SCHEMA_VERSION, version, name).executeUpdate();
+					return null;
+				}
+			});
+			System.out.println("Done");
+			this._esql.schemaChanged();
+			++count;
+		}//end for
+		return count;
+	}//end migrate
+
+	/**
+	 * Method to report the latest applied schema version.
+	 *
+	 * @return the version, 0 when no migration was applied
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int currentVersion() throws SQLException {
+		if (this._esql.executeQuery("SELECT 1 FROM pg_tables WHERE tablename = 'schema_version'") == 0) return 0;
+		return Integer.parseInt(this._esql.executeQueryAndReturnResult("SELECT COALESCE(MAX(version), 0) FROM schema_version").get(0).get(0));
+	}
+
+	private List<File> pending() throws IOException {
+		File[] files = this._dir.listFiles();
+		if (files == null) throw new IOException("No migrations directory " + this._dir);
+		List<File> result = new ArrayList<File>();
+		for (File f : files){
+			if (FILE_NAME.matcher(f.getName()).matches()) result.add(f);
+		}//end for
+		result.sort(new Comparator<File>(){
+			public int compare(File a, File b){
+				return Integer.compare(versionOf(a), versionOf(b));
+			}
+		});
+		return result;
+	}
+
+	private static int versionOf(File f){
+		Matcher m = FILE_NAME.matcher(f.getName());
+		m.matches();
+		return Integer.parseInt(m.group(1));
+	}
+}//end Migrator
@@ -0,0 +1,158 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class finds the patient a booking is for, adding the patient when
+ * none matches. Details seen before are answered from memory. The others
+ * are looked up through the patient_match index of migration V006, which
+ * matches name and address after normalizing case and whitespace, under an
+ * advisory lock on the patient's key so that two concurrent first bookings
+ * of one person add only one row. A new patient whose name is similar to an
+ * existing one of the same gender and age is recorded in
+ * patient_near_duplicate.
+ *
+ * Without V006 the lookup is the exact match of FIND_PATIENT, as before.
+ *
+ * Normalizing is left to patient_norm on the server. The memory is keyed by
+ * the details exactly as given, so "John  Smith" and "john smith" are two
+ * entries resolved by the same lookup to one patient, and the two can never
+ * disagree on whether patients match.
+ *
+ */
+
+public class PatientResolver{
+	//patients remembered, overridable with -Ddbproject.patientCache.size=...
+	static final int CAPACITY = Integer.getInteger("dbproject.patientCache.size", 65536);
+	//least trigram similarity of names flagged as near-duplicates
+	static final double NEAR_DUPLICATE = Double.parseDouble(System.getProperty("dbproject.nearDuplicate", "0.6"));
+	//first migration with patient_key
+	static final int PATIENT_KEY_VERSION = 6;
+
+	private final DBproject _esql;
+	//patient IDs by the details as given; only committed rows are cached and patients are never deleted
+	private final LinkedHashMap<String, Integer> _patients;
+	private final AtomicLong _hits = new AtomicLong();
+	private final AtomicLong _misses = new AtomicLong();
+	private final AtomicLong _created = new AtomicLong();
+	private final AtomicLong _flagged = new AtomicLong();
+
+	public PatientResolver(DBproject esql){
+		this._esql = esql;
+		this._patients = new LinkedHashMap<String, Integer>(1024, 0.75f, true){
+			protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest){
+				return size() > CAPACITY;
+			}
+		};
+	}
+
+	/**
+	 * Method to get the ID of the patient with these details, adding the
+	 * patient when there is none. Runs inside the caller's transaction.
+	 *
+	 * @return the patient ID
+	 * @throws java.sql.SQLException when a statement failed
+	 * @throws IllegalStateException when several patients match exactly and
+	 * V006 is not applied
+	 */
+	public int resolve(ConnectionPool.PooledConnection pc, String name, String gender, int age, String address) throws SQLException {
+		boolean keyed = this._esql.getSchemaVersion() >= PATIENT_KEY_VERSION;
+		String key = key(name, gender, age, address);
+		Integer cached;
+		synchronized (this._patients){
+			cached = this._patients.get(key);
+		}
+		if (cached != null){
+			this._hits.incrementAndGet();
+			return cached;
+		}//end if
+		this._misses.incrementAndGet();
+
+		int patient_ID = keyed ? findByKey(pc, name, gender, age, address) : findExact(pc, name, gender, age, address);
+		if (patient_ID >= 0){
+			synchronized (this._patients){
+				this._patients.put(key, patient_ID);
+			}
+			return patient_ID;
+		}//end if
+
+		// not cached until committed, the transaction may still roll back
+		patient_ID = this._esql.getNextId(IdAllocator.PATIENT);
+		DBproject.bind(pc, Query.ADD_PATIENT, patient_ID, name, gender, age, address).executeUpdate();
+		this._created.incrementAndGet();
+		if (keyed) flagSimilar(pc, patient_ID, name, gender, age);
+		return patient_ID;
+	}//end resolve
+
+	private int findByKey(ConnectionPool.PooledConnection pc, String name, String gender, int age, String address) throws SQLException {
+		// held until commit, a concurrent booking of the same person waits here and then finds the row
+		DBproject.bind(pc, Query.LOCK_PATIENT_KEY, name, gender, age, address).executeQuery().close();
+		ResultSet rs = DBproject.bind(pc, Query.FIND_PATIENT_BY_KEY, name, gender, age, address).executeQuery();
+		try{
+			if (!rs.next()) return -1;
+			int patient_ID = rs.getInt(1);
+			// rows that were already duplicates book as the oldest one and are flagged
+			while (rs.next()){
+				DBproject.bind(pc, Query.ADD_NEAR_DUPLICATE, rs.getInt(1), patient_ID, 1.0f).executeUpdate();
+				this._flagged.incrementAndGet();
+			}//end while
+			return patient_ID;
+		}finally{
+			rs.close();
+		}
+	}
+
+	private static int findExact(ConnectionPool.PooledConnection pc, String name, String gender, int age, String address) throws SQLException {
+		ResultSet rs = DBproject.bind(pc, Query.FIND_PATIENT, name, age, gender, address).executeQuery();
+		int patient_ID = -1;
+		int matches = 0;
+		while (rs.next()){
+			patient_ID = rs.getInt(1);
+			++matches;
+		}//end while
+		rs.close();
+		if (matches > 1) throw new IllegalStateException("Duplicate Patient. Please Fix.");
+		return patient_ID;
+	}
+
+	private void flagSimilar(ConnectionPool.PooledConnection pc, int patient_ID, String name, String gender, int age) throws SQLException {
+		ResultSet rs = DBproject.bind(pc, Query.FIND_SIMILAR_PATIENTS, name, name, gender, age, patient_ID).executeQuery();
+		try{
+			while (rs.next()){
+				float similarity = rs.getFloat(2);
+				if (similarity < NEAR_DUPLICATE) break;
+				DBproject.bind(pc, Query.ADD_NEAR_DUPLICATE, patient_ID, rs.getInt(1), similarity).executeUpdate();
+				this._flagged.incrementAndGet();
+			}//end while
+		}finally{
+			rs.close();
+		}
+	}
+
+	/**
+	 * Method to build the in-memory key from the details as given.
+	 */
+	static String key(String name, String gender, int age, String address){
+		return name + '\0' + gender + '\0' + age + '\0' + address;
+	}
+
+	/**
+	 * Method to forget every patient, e.g. after a bulk reload.
+	 */
+	public void clear(){
+		synchronized (this._patients){
+			this._patients.clear();
+		}
+	}
+
+	public String stats(){
+		int size;
+		synchronized (this._patients){
+			size = this._patients.size();
+		}
+		return String.format("hits=%d misses=%d created=%d flagged=%d cached=%d",
+			this._hits.get(), this._misses.get(), this._created.get(), this._flagged.get(), size);
+	}
+}//end PatientResolver
@@ -0,0 +1,188 @@
+/**
+ * This enum names every SQL statement the menu operations issue. Values are
+ * always bound as parameters, never glued into the SQL text, so each entry
+ * maps to exactly one cached PreparedStatement per connection.
+ *
+ */
+
+public enum Query{
+	//1. Add Doctor
+	ADD_DOCTOR("INSERT INTO Doctor VALUES (?, ?, ?, ?)", false),
+	//same on the other shards, so copying a doctor again is harmless
+	COPY_DOCTOR("INSERT INTO Doctor VALUES (?, ?, ?, ?) ON CONFLICT DO NOTHING", false),
+	//2. Add Patient
+	ADD_PATIENT("INSERT INTO Patient VALUES (?, ?, ?, ?, ?, 0)", false),
+	//3. Add Appointment
+	ADD_APPOINTMENT("INSERT INTO Appointment VALUES (?, ?, ?, 'AV')", false),
+	//3. recurring slots of a template, needs migration V009
+	OPEN_SLOTS("SELECT open_slots(?, ?, ?, ?, ?, ?)", false),
+	OPEN_DEPARTMENT_SLOTS("SELECT open_slots(ARRAY(SELECT DC.doctor_ID FROM Doctor DC WHERE DC.did = ?), ?, ?, ?, ?, ?)", false),
+	//4. Make an Appointment
+	FIND_APPOINTMENT("SELECT 1 FROM Appointment A WHERE A.appnt_ID = ?", true),
+	FIND_PATIENT("SELECT P.patient_ID FROM Patient P WHERE P.name = ? AND P.age = ? AND P.gtype = ? AND P.address = ?", true),
+	//same by normalized identity, needs migration V006
+	LOCK_PATIENT_KEY("SELECT pg_advisory_xact_lock(hashtext(patient_key(?, ?, ?, ?)))", true),
+	FIND_PATIENT_BY_KEY("SELECT P.patient_ID FROM Patient P WHERE patient_key(P.name, P.gtype, P.age, P.address) = patient_key(?, ?, ?, ?) " +
+		"ORDER BY P.patient_ID", true),
+	FIND_SIMILAR_PATIENTS(
+		"SELECT P.patient_ID, similarity(patient_norm(P.name), patient_norm(?)) AS s FROM Patient P " +
+		"WHERE patient_norm(P.name) % patient_norm(?) AND P.gtype = ? AND P.age = ? AND P.patient_ID <> ? ORDER BY s DESC LIMIT 5", false),
+	ADD_NEAR_DUPLICATE("INSERT INTO patient_near_duplicate (patient_id, similar_id, similarity) VALUES (?, ?, ?) ON CONFLICT DO NOTHING", false),
+	LOCK_APPOINTMENT("SELECT A.status, A.adate < CURRENT_DATE FROM Appointment A WHERE A.appnt_ID = ? FOR UPDATE", true),
+	LOCK_NEXT_AVAILABLE(
+		"SELECT A.appnt_ID FROM has_appointment H, Appointment A " +
+		"WHERE H.doctor_id = ? AND H.appt_id = A.appnt_ID AND A.adate = ? AND A.status = 'AV' " +
+		"ORDER BY split_part(A.time_slot, '-', 1)::time, A.appnt_ID LIMIT 1 FOR UPDATE OF A SKIP LOCKED", true),
+	//same by the stored slot start, needs migration V002
+	LOCK_NEXT_AVAILABLE_BY_START(
+		"SELECT A.appnt_ID FROM has_appointment H, Appointment A " +
+		"WHERE H.doctor_id = ? AND H.appt_id = A.appnt_ID AND A.adate = ? AND A.status = 'AV' " +
+		"ORDER BY A.slot_start, A.appnt_ID LIMIT 1 FOR UPDATE OF A SKIP LOCKED", true),
+	FIND_APPOINTMENT_DOCTOR("SELECT H.doctor_id FROM has_appointment H WHERE H.appt_id = ?", true),
+	SET_APPOINTMENT_STATUS("UPDATE Appointment SET status = ? WHERE appnt_ID = ?", true),
+	//only an existing link is ignored, an overlap with another slot of the doctor (V002) fails the booking
+	ADD_HAS_APPOINTMENT("INSERT INTO has_appointment VALUES (?, ?) ON CONFLICT (appt_id, doctor_id) DO NOTHING", true),
+	ADD_SEARCH("INSERT INTO searches VALUES (?, ?, ?) ON CONFLICT DO NOTHING", true),
+	ADD_SEARCHES("INSERT INTO searches SELECT * FROM unnest(?::INTEGER[], ?::INTEGER[], ?::INTEGER[]) ON CONFLICT DO NOTHING", false),
+	ADD_PATIENT_APPOINTMENTS("UPDATE Patient SET number_of_appts = COALESCE(number_of_appts, 0) + ? WHERE patient_ID = ?", true),
+	FIND_BOOKING("SELECT B.waitlisted FROM books B WHERE B.appt_id = ? AND B.patient_id = ?", true),
+	ADD_BOOKING("INSERT INTO books (appt_id, patient_id, waitlisted) VALUES (?, ?, ?)", true),
+	DELETE_BOOKING("DELETE FROM books WHERE appt_id = ? AND patient_id = ?", false),
+	NEXT_WAITLISTED("SELECT B.patient_id FROM books B WHERE B.appt_id = ? AND B.waitlisted ORDER BY B.booked_at, B.patient_id LIMIT 1", false),
+	PROMOTE_BOOKING("UPDATE books SET waitlisted = FALSE WHERE appt_id = ? AND patient_id = ?", false),
+	COUNT_WAITLISTED("SELECT COUNT(*) FROM books B WHERE B.appt_id = ? AND B.waitlisted", false),
+	//5. List appointments of a given doctor
+	LIST_APPOINTMENTS_OF_DOCTOR(
+		"SELECT A.appnt_ID AS id, A.adate AS App_Date, A.time_slot AS Time_slot, A.status AS Status " +
+		"FROM has_appointment H, Appointment A " +
+		"WHERE H.doctor_id = ? AND H.appt_id = A.appnt_ID AND (A.adate BETWEEN ? AND ?) AND (A.status = 'AV' OR A.status = 'AC')", true),
+	//6. List all available appointments of a given department, by the IDs of the departments with its name
+	LIST_AVAILABLE_APPOINTMENTS_OF_DEPARTMENT(
+		"SELECT A.appnt_ID AS id, A.adate AS App_Date, A.time_slot AS Time_slot, A.status AS Status " +
+		"FROM Doctor DC, has_appointment H, Appointment A " +
+		"WHERE DC.did = ANY (?) AND DC.doctor_ID = H.doctor_id AND H.appt_id = A.appnt_ID AND A.adate = ? AND A.status = 'AV'", true),
+	//7. Count appointments of each status per doctor
+	STATUS_COUNTS_PER_DOCTOR(
+		"SELECT DC.doctor_ID AS id, DC.name AS Name, C.PA, C.AC, C.AV, C.WL, C.Total " +
+		"FROM (SELECT H.doctor_id, COUNT(*) FILTER (WHERE A.status = 'PA') AS PA, COUNT(*) FILTER (WHERE A.status = 'AC') AS AC, " +
+		"COUNT(*) FILTER (WHERE A.status = 'AV') AS AV, COUNT(*) FILTER (WHERE A.status = 'WL') AS WL, COUNT(A.status) AS Total " +
+		"FROM has_appointment H, Appointment A WHERE H.appt_id = A.appnt_ID GROUP BY H.doctor_id) C, Doctor DC " +
+		"WHERE C.doctor_id = DC.doctor_ID ORDER BY C.Total DESC, DC.doctor_ID", false),
+	//same from doctor_status_count, needs migration V003
+	STATUS_COUNTS_PER_DOCTOR_SUMMARY(
+		"SELECT DC.doctor_ID AS id, DC.name AS Name, C.PA, C.AC, C.AV, C.WL, C.Total " +
+		"FROM (SELECT S.doctor_id, COALESCE(SUM(S.count) FILTER (WHERE S.status = 'PA'), 0) AS PA, " +
+		"COALESCE(SUM(S.count) FILTER (WHERE S.status = 'AC'), 0) AS AC, COALESCE(SUM(S.count) FILTER (WHERE S.status = 'AV'), 0) AS AV, " +
+		"COALESCE(SUM(S.count) FILTER (WHERE S.status = 'WL'), 0) AS WL, SUM(S.count) AS Total " +
+		"FROM doctor_status_count S GROUP BY S.doctor_id HAVING SUM(S.count) > 0) C, Doctor DC " +
+		"WHERE C.doctor_id = DC.doctor_ID ORDER BY C.Total DESC, DC.doctor_ID", false),
+	//8. Count patients per doctor with appointments of a given status, one patient per appointment
+	PATIENTS_WITH_STATUS_PER_DOCTOR(
+		"SELECT DC.doctor_ID AS id, DC.name AS Name, C.Patients " +
+		"FROM (SELECT H.doctor_id, COUNT(*) AS Patients FROM has_appointment H, Appointment A " +
+		"WHERE H.appt_id = A.appnt_ID AND A.status = ? GROUP BY H.doctor_id) C, Doctor DC " +
+		"WHERE C.doctor_id = DC.doctor_ID ORDER BY C.Patients DESC, DC.doctor_ID", false),
+	//same from doctor_status_count, needs migration V003
+	PATIENTS_WITH_STATUS_PER_DOCTOR_SUMMARY(
+		"SELECT DC.doctor_ID AS id, DC.name AS Name, S.count AS Patients " +
+		"FROM doctor_status_count S, Doctor DC " +
+		"WHERE S.status = ? AND S.count > 0 AND S.doctor_id = DC.doctor_ID ORDER BY S.count DESC, DC.doctor_ID", false),
+	//7. and 8. counting archived appointments as PA too, needs migration V007
+	STATUS_COUNTS_PER_DOCTOR_WITH_ARCHIVE(
+		"SELECT DC.doctor_ID AS id, DC.name AS Name, C.PA, C.AC, C.AV, C.WL, C.Total " +
+		"FROM (SELECT X.doctor_id, COUNT(*) FILTER (WHERE X.status = 'PA') AS PA, COUNT(*) FILTER (WHERE X.status = 'AC') AS AC, " +
+		"COUNT(*) FILTER (WHERE X.status = 'AV') AS AV, COUNT(*) FILTER (WHERE X.status = 'WL') AS WL, COUNT(X.status) AS Total " +
+		"FROM (SELECT H.doctor_id, A.status FROM has_appointment H, Appointment A WHERE H.appt_id = A.appnt_ID " +
+		"UNION ALL SELECT HA.doctor_id, 'PA' FROM has_appointment_archive HA) X GROUP BY X.doctor_id) C, Doctor DC " +
+		"WHERE C.doctor_id = DC.doctor_ID ORDER BY C.Total DESC, DC.doctor_ID", false),
+	PATIENTS_WITH_STATUS_PER_DOCTOR_WITH_ARCHIVE(
+		"WITH S AS (SELECT ?::VARCHAR AS status) SELECT DC.doctor_ID AS id, DC.name AS Name, C.Patients " +
+		"FROM (SELECT X.doctor_id, COUNT(*) AS Patients FROM (SELECT H.doctor_id FROM has_appointment H, Appointment A, S " +
+		"WHERE H.appt_id = A.appnt_ID AND A.status = S.status UNION ALL SELECT HA.doctor_id FROM has_appointment_archive HA, S WHERE S.status = 'PA') X " +
+		"GROUP BY X.doctor_id) C, Doctor DC " +
+		"WHERE C.doctor_id = DC.doctor_ID ORDER BY C.Patients DESC, DC.doctor_ID", false),
+	//archiving batches, needs migration V007
+	EXPIRE_APPOINTMENTS("SELECT expire_appointments(?)", false),
+	COUNT_ARCHIVED("SELECT COUNT(*) FROM appointment_archive", false),
+	ARCHIVE_APPOINTMENTS("SELECT archive_appointments(CURRENT_DATE - ?, ?)", false),
+	//schema migrations
+	ADD_SCHEMA_VERSION("INSERT INTO schema_version (version, name) VALUES (?, ?)", false),
+	//available appointments of a department within a time window, needs migration V002
+	LIST_FREE_SLOTS_OF_DEPARTMENT(
+		"SELECT A.appnt_ID AS id, A.adate AS App_Date, A.time_slot AS Time_slot, A.status AS Status " +
+		"FROM Doctor DC, has_appointment H, Appointment A " +
+		"WHERE DC.did = ANY (?) AND DC.doctor_ID = H.doctor_id AND H.appt_id = A.appnt_ID " +
+		"AND A.adate = ? AND A.status = 'AV' AND A.slot_start >= ?::time AND A.slot_end <= ?::time " +
+		"ORDER BY A.slot_start", true),
+	//6. and free slots from available_slot, needs migration V005
+	LIST_AVAILABLE_SLOTS_OF_DEPARTMENT(
+		"SELECT S.appnt_id AS id, S.adate AS App_Date, S.time_slot AS Time_slot, 'AV' AS Status " +
+		"FROM available_slot S WHERE S.dept_id = ANY (?) AND S.adate = ?", true),
+	LIST_FREE_SLOTS_OF_DEPARTMENT_INDEXED(
+		"SELECT S.appnt_id AS id, S.adate AS App_Date, S.time_slot AS Time_slot, 'AV' AS Status " +
+		"FROM available_slot S WHERE S.dept_id = ANY (?) AND S.adate = ? AND S.slot_start >= ?::time AND S.slot_end <= ?::time " +
+		"ORDER BY S.slot_start", true),
+	//staff scheduling, staff only serve doctors of their own hospital
+	SCHEDULE_REQUESTS(
+		"SELECT DP.hid, R.did, R.sid, R.patient_per_hour, R.time_slot " +
+		"FROM request_maintenance R, Doctor DC, Department DP, Staff ST " +
+		"WHERE R.did = DC.doctor_ID AND DC.did = DP.dept_ID AND R.sid = ST.staff_ID AND ST.hid = DP.hid", false),
+	SCHEDULE_APPOINTMENTS(
+		"SELECT DISTINCT ON (A.appnt_ID) DP.hid, H.doctor_id, A.appnt_ID, A.adate, A.time_slot " +
+		"FROM Appointment A, has_appointment H, Doctor DC, Department DP " +
+		"WHERE A.adate BETWEEN ? AND ? AND A.status <> 'PA' AND H.appt_id = A.appnt_ID AND H.doctor_id = DC.doctor_ID " +
+		"AND DC.did = DP.dept_ID AND NOT EXISTS (SELECT 1 FROM schedules S WHERE S.appt_id = A.appnt_ID) " +
+		"ORDER BY A.appnt_ID, H.doctor_id", false),
+	SCHEDULE_BUSY(
+		"SELECT ST.hid, S.staff_id, A.adate, A.time_slot FROM schedules S, Appointment A, Staff ST " +
+		"WHERE S.appt_id = A.appnt_ID AND A.adate BETWEEN ? AND ? AND S.staff_id = ST.staff_ID", false),
+	LOCK_SCHEDULER("SELECT pg_advisory_xact_lock(hashtext('staff_scheduler'))", false),
+	ADD_SCHEDULES(
+		"INSERT INTO schedules SELECT U.appt_id, U.staff_id FROM unnest(?::INTEGER[], ?::INTEGER[]) AS U(appt_id, staff_id) " +
+		"WHERE NOT EXISTS (SELECT 1 FROM schedules S WHERE S.appt_id = U.appt_id) ON CONFLICT DO NOTHING", false),
+	//reference rows read through ReferenceCache
+	REF_DOCTOR("SELECT DC.name, DC.specialty, DC.did FROM Doctor DC WHERE DC.doctor_ID = ?", true),
+	REF_DEPARTMENT("SELECT DP.name, DP.hid FROM Department DP WHERE DP.dept_ID = ?", true),
+	REF_HOSPITAL("SELECT HP.name FROM Hospital HP WHERE HP.hospital_ID = ?", true),
+	REF_DEPARTMENTS_NAMED("SELECT DP.dept_ID FROM Department DP WHERE DP.name = ? ORDER BY DP.dept_ID", true),
+	//synthetic rows of WorkloadGenerator, sizes and names bound like any other value
+	GEN_HOSPITALS("INSERT INTO Hospital SELECT h, 'Hospital ' || h FROM generate_series(0, ?) h", false),
+	GEN_DEPARTMENTS(
+		"INSERT INTO Department SELECT d, (?::text[])[1 + (d % ?) % ?] || CASE WHEN d % ? >= ? THEN ' ' || (d % ?) ELSE '' END, " +
+		"d / ? FROM generate_series(0, ?) d", false),
+	GEN_STAFF("INSERT INTO Staff SELECT s, 'Staff ' || s, s % ? FROM generate_series(0, ?) s", false),
+	GEN_DOCTORS("INSERT INTO Doctor SELECT i, 'Doctor ' || i, (?::text[])[1 + i % ?], i % ? FROM generate_series(0, ?) i", false),
+	GEN_PATIENTS(
+		"INSERT INTO Patient SELECT p, 'Patient ' || p, CASE WHEN p % 2 = 0 THEN 'F' ELSE 'M' END, 1 + (p * 37) % 90, " +
+		"p || ' Main Street', 0 FROM generate_series(0, ?) p", false),
+	GEN_APPOINTMENTS(
+		"INSERT INTO Appointment (appnt_ID, adate, time_slot, status) SELECT i, ?::date + ((i / ?) % ?), " +
+		"(?::text[])[1 + i % ?], (?::text[])[1 + (i * 7919) % ?] FROM generate_series(0, ?) i", false),
+	GEN_HAS_APPOINTMENT("INSERT INTO has_appointment (appt_id, doctor_id) SELECT i, (i / ?) % ? FROM generate_series(0, ?) i", false),
+	GEN_HOLDERS(
+		"INSERT INTO books (appt_id, patient_id, waitlisted) SELECT A.appnt_ID, (A.appnt_ID * 7) % ?, FALSE " +
+		"FROM Appointment A WHERE A.status IN ('AC', 'WL')", false),
+	GEN_WAITLISTED(
+		"INSERT INTO books (appt_id, patient_id, waitlisted) SELECT A.appnt_ID, (A.appnt_ID * 7 + 1) % ?, TRUE " +
+		"FROM Appointment A WHERE A.status = 'WL'", false),
+	GEN_SCHEDULES(
+		"INSERT INTO schedules SELECT H.appt_id, DP.hid + ? * (H.appt_id % ?) FROM has_appointment H, Appointment A, Doctor DC, Department DP " +
+		"WHERE H.appt_id = A.appnt_ID AND A.status IN ('AC', 'WL') AND H.doctor_id = DC.doctor_ID AND DC.did = DP.dept_ID", false),
+	GEN_MAINTENANCE(
+		"INSERT INTO request_maintenance SELECT 1 + DC.doctor_ID % 4, DP.name, (?::text[])[1 + DC.doctor_ID % ?], " +
+		"DC.doctor_ID, DP.hid + ? * (DC.doctor_ID % ?) FROM Doctor DC, Department DP WHERE DC.did = DP.dept_ID", false),
+	GEN_SET_SEQUENCE("SELECT setval(?::regclass, ?, false)", false),
+	//key allocation
+	CURR_SEQ_VAL("SELECT currval(?)", false),
+	NEXT_SEQ_VAL("SELECT nextval(?)", false);
+
+	//SQL text with ? placeholders
+	public final String sql;
+	//whether to server-prepare the statement from its first execution
+	public final boolean hot;
+
+	Query(String sql, boolean hot){
+		this.sql = sql;
+		this.hot = hot;
+	}
+}//end Query
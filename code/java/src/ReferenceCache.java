@@ -0,0 +1,359 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class keeps the near-static reference rows, Doctor, Department and
+ * Hospital, in memory so that validating a doctor ID or resolving a
+ * department name costs no round-trip once the row was read. Rows are read
+ * through on the first miss and every map is bounded. Absent IDs are
+ * remembered as well once V004 is applied; before it nothing would tell the
+ * cache when such a row is inserted.
+ *
+ * Entries are dropped when this process writes the row and when Postgres
+ * notifies the reference_changed channel, which the triggers of migration
+ * V004 do for every write from any client. The notifications arrive through
+ * ChangeFeed; when its connection drops the whole cache is cleared, as
+ * notifications may have been missed.
+ *
+ */
+
+public class ReferenceCache implements ChangeFeed.Subscriber{
+	public static final String CHANNEL = "reference_changed";
+	//entries kept per map, overridable with -Ddbproject.cache.size=...
+	static final int CAPACITY = Integer.getInteger("dbproject.cache.size", 4096);
+	//schema version whose triggers notify CHANNEL
+	static final int NOTIFY_VERSION = 4;
+
+	/**
+	 * A row of Doctor.
+	 */
+	public static final class Doctor{
+		public final int id;
+		public final String name;
+		public final String specialty;
+		public final int did;
+
+		Doctor(int id, String name, String specialty, int did){
+			this.id = id;
+			this.name = name;
+			this.specialty = specialty;
+			this.did = did;
+		}
+	}
+
+	/**
+	 * A row of Department.
+	 */
+	public static final class Department{
+		public final int id;
+		public final String name;
+		public final int hid;
+
+		Department(int id, String name, int hid){
+			this.id = id;
+			this.name = name;
+			this.hid = hid;
+		}
+	}
+
+	//cached for IDs with no row
+	private static final Doctor NO_DOCTOR = new Doctor(-1, null, null, -1);
+	private static final Department NO_DEPARTMENT = new Department(-1, null, -1);
+	private static final String NO_HOSPITAL = new String("");
+
+	private final ConnectionPool _pool;
+	private final IntCache<Doctor> _doctors = new IntCache<Doctor>(CAPACITY);
+	private final IntCache<Department> _departments = new IntCache<Department>(CAPACITY);
+	private final IntCache<String> _hospitals = new IntCache<String>(CAPACITY);
+	//department IDs by name, names repeat across hospitals
+	private final LinkedHashMap<String, int[]> _departmentsByName;
+	//bumped by every invalidation of _departmentsByName, guarded by it
+	private long _namesGeneration = 0;
+
+	//whether absent IDs and names are cached, set from the schema version
+	private volatile boolean _keepMisses = false;
+
+	private final AtomicLong _hits = new AtomicLong();
+	private final AtomicLong _misses = new AtomicLong();
+	private final AtomicLong _invalidations = new AtomicLong();
+
+	public ReferenceCache(ConnectionPool pool){
+		this._pool = pool;
+		this._departmentsByName = new LinkedHashMap<String, int[]>(16, 0.75f, true){
+			protected boolean removeEldestEntry(Map.Entry<String, int[]> eldest){
+				return size() > CAPACITY;
+			}
+		};
+	}
+
+	/**
+	 * Method to tell the cache the schema version, called on connect and
+	 * after migrations.
+	 */
+	public void schemaChanged(int version){
+		this._keepMisses = version >= NOTIFY_VERSION;
+	}
+
+	/**
+	 * Method to get a doctor.
+	 *
+	 * @return the doctor, or null when no doctor has the ID
+	 * @throws java.sql.SQLException when the row had to be read and that failed
+	 */
+	public Doctor doctor(int id) throws SQLException {
+		Doctor d = this._doctors.get(id);
+		if (d == null){
+			ConnectionPool.PooledConnection pc = this._pool.acquire();
+			try{
+				d = loadDoctor(pc, id);
+			}finally{
+				this._pool.release(pc);
+			}
+		}else{
+			this._hits.incrementAndGet();
+		}//end if
+		return d == NO_DOCTOR ? null : d;
+	}
+
+	/**
+	 * Method to get a doctor, reading a missing row on a connection the
+	 * caller already holds, e.g. inside inTransaction.
+	 */
+	public Doctor doctor(ConnectionPool.PooledConnection pc, int id) throws SQLException {
+		Doctor d = this._doctors.get(id);
+		if (d == null) d = loadDoctor(pc, id);
+		else this._hits.incrementAndGet();
+		return d == NO_DOCTOR ? null : d;
+	}
+
+	/**
+	 * Method to get a department.
+	 *
+	 * @return the department, or null when no department has the ID
+	 */
+	public Department department(int id) throws SQLException {
+		Department d = this._departments.get(id);
+		if (d == null){
+			ConnectionPool.PooledConnection pc = this._pool.acquire();
+			try{
+				d = loadDepartment(pc, id);
+			}finally{
+				this._pool.release(pc);
+			}
+		}else{
+			this._hits.incrementAndGet();
+		}//end if
+		return d == NO_DEPARTMENT ? null : d;
+	}
+
+	public Department department(ConnectionPool.PooledConnection pc, int id) throws SQLException {
+		Department d = this._departments.get(id);
+		if (d == null) d = loadDepartment(pc, id);
+		else this._hits.incrementAndGet();
+		return d == NO_DEPARTMENT ? null : d;
+	}
+
+	/**
+	 * Method to get the name of a hospital.
+	 *
+	 * @return the name, or null when no hospital has the ID
+	 */
+	public String hospital(int id) throws SQLException {
+		String h = this._hospitals.get(id);
+		if (h == null){
+			ConnectionPool.PooledConnection pc = this._pool.acquire();
+			try{
+				h = loadHospital(pc, id);
+			}finally{
+				this._pool.release(pc);
+			}
+		}else{
+			this._hits.incrementAndGet();
+		}//end if
+		return h == NO_HOSPITAL ? null : h;
+	}
+
+	/**
+	 * Method to get the hospital a doctor works at through its department.
+	 *
+	 * @return the hospital ID, or -1 when no doctor has the ID
+	 */
+	public int hospitalOfDoctor(ConnectionPool.PooledConnection pc, int doctor_id) throws SQLException {
+		Doctor d = doctor(pc, doctor_id);
+		if (d == null) return -1;
+		Department dp = department(pc, d.did);
+		return dp == null ? -1 : dp.hid;
+	}
+
+	/**
+	 * Method to get the hospital a doctor works at, on a pooled connection
+	 * when a row has to be read.
+	 */
+	public int hospitalOfDoctor(int doctor_id) throws SQLException {
+		Doctor d = doctor(doctor_id);
+		if (d == null) return -1;
+		Department dp = department(d.did);
+		return dp == null ? -1 : dp.hid;
+	}
+
+	/**
+	 * Method to get the IDs of the departments with a name, one per hospital
+	 * that has it. The array is shared and must not be modified.
+	 *
+	 * @return the department IDs, empty when no department has the name
+	 */
+	public int[] departmentsNamed(String name) throws SQLException {
+		long generation;
+		synchronized (this._departmentsByName){
+			int[] ids = this._departmentsByName.get(name);
+			if (ids != null){
+				this._hits.incrementAndGet();
+				return ids;
+			}//end if
+			generation = this._namesGeneration;
+		}
+		this._misses.incrementAndGet();
+		int[] ids = new int[4];
+		int n = 0;
+		ConnectionPool.PooledConnection pc = this._pool.acquire();
+		try{
+			ResultSet rs = DBproject.bind(pc, Query.REF_DEPARTMENTS_NAMED, name).executeQuery();
+			while (rs.next()){
+				if (n == ids.length) ids = Arrays.copyOf(ids, n * 2);
+				ids[n++] = rs.getInt(1);
+			}//end while
+			rs.close();
+		}finally{
+			this._pool.release(pc);
+		}
+		ids = Arrays.copyOf(ids, n);
+		synchronized (this._departmentsByName){
+			if (generation == this._namesGeneration && (n > 0 || this._keepMisses)) this._departmentsByName.put(name, ids);
+		}
+		return ids;
+	}//end departmentsNamed
+
+	private Doctor loadDoctor(ConnectionPool.PooledConnection pc, int id) throws SQLException {
+		this._misses.incrementAndGet();
+		long generation = this._doctors.generation();
+		ResultSet rs = DBproject.bind(pc, Query.REF_DOCTOR, id).executeQuery();
+		Doctor d = rs.next() ? new Doctor(id, rs.getString(1), rs.getString(2), rs.getInt(3)) : NO_DOCTOR;
+		rs.close();
+		if (d != NO_DOCTOR || this._keepMisses) this._doctors.put(id, d, generation);
+		return d;
+	}
+
+	private Department loadDepartment(ConnectionPool.PooledConnection pc, int id) throws SQLException {
+		this._misses.incrementAndGet();
+		long generation = this._departments.generation();
+		ResultSet rs = DBproject.bind(pc, Query.REF_DEPARTMENT, id).executeQuery();
+		Department d = rs.next() ? new Department(id, rs.getString(1), rs.getInt(2)) : NO_DEPARTMENT;
+		rs.close();
+		if (d != NO_DEPARTMENT || this._keepMisses) this._departments.put(id, d, generation);
+		return d;
+	}
+
+	private String loadHospital(ConnectionPool.PooledConnection pc, int id) throws SQLException {
+		this._misses.incrementAndGet();
+		long generation = this._hospitals.generation();
+		ResultSet rs = DBproject.bind(pc, Query.REF_HOSPITAL, id).executeQuery();
+		String h = rs.next() ? rs.getString(1) : NO_HOSPITAL;
+		rs.close();
+		if (h != NO_HOSPITAL || this._keepMisses) this._hospitals.put(id, h, generation);
+		return h;
+	}
+
+	/*
+	 * Invalidation, by this process after its own writes and by the
+	 * listener for notifications.
+	 */
+
+	public void invalidateDoctor(int id){
+		this._invalidations.incrementAndGet();
+		this._doctors.remove(id);
+	}
+
+	public void invalidateDepartment(int id){
+		this._invalidations.incrementAndGet();
+		this._departments.remove(id);
+		clearNames();
+	}
+
+	public void invalidateHospital(int id){
+		this._invalidations.incrementAndGet();
+		this._hospitals.remove(id);
+	}
+
+	/**
+	 * Method to drop every entry, e.g. after a bulk reload.
+	 */
+	public void clear(){
+		this._invalidations.incrementAndGet();
+		this._doctors.clear();
+		this._departments.clear();
+		this._hospitals.clear();
+		clearNames();
+	}
+
+	private void clearNames(){
+		synchronized (this._departmentsByName){
+			++this._namesGeneration;
+			this._departmentsByName.clear();
+		}
+	}
+
+	/*
+	 * Payloads are table:id for a row, or the table alone after a TRUNCATE.
+	 */
+	void invalidate(String payload){
+		int colon = payload.indexOf(':');
+		String table = colon < 0 ? payload : payload.substring(0, colon);
+		int id = 0;
+		boolean all = colon < 0;
+		if (!all){
+			try{
+				id = Integer.parseInt(payload.substring(colon + 1));
+			}catch (NumberFormatException e){
+				all = true;
+			}//end try
+		}//end if
+		if (table.equals("doctor")){
+			if (all){
+				this._invalidations.incrementAndGet();
+				this._doctors.clear();
+			}else invalidateDoctor(id);
+		}else if (table.equals("department")){
+			if (all){
+				this._invalidations.incrementAndGet();
+				this._departments.clear();
+				clearNames();
+			}else invalidateDepartment(id);
+		}else if (table.equals("hospital")){
+			if (all){
+				this._invalidations.incrementAndGet();
+				this._hospitals.clear();
+			}else invalidateHospital(id);
+		}else{
+			clear();
+		}//end if
+	}//end invalidate
+
+	public void notified(String payload){
+		invalidate(payload);
+	}
+
+	public void reset(){
+		clear();
+	}
+
+	public String stats(){
+		return String.format("hits=%d misses=%d invalidations=%d evictions=%d doctors=%d departments=%d hospitals=%d",
+			this._hits.get(), this._misses.get(), this._invalidations.get(),
+			this._doctors.evictions() + this._departments.evictions() + this._hospitals.evictions(),
+			this._doctors.size(), this._departments.size(), this._hospitals.size());
+	}
+}//end ReferenceCache
@@ -0,0 +1,94 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * This program measures StaffScheduler.solve on a synthetic month without a
+ * database: a hospital network of the given size where every doctor has
+ * four slots a day and asks for a few staff members of its hospital, each
+ * for one long shift. The problem is solved a few times to warm up the JIT
+ * and then measured, and the median and best solve times are reported.
+ *
+ *   java -cp bin/ SchedulerBenchmark [name=value ...]
+ *
+ * where name is one of hospitals, staff, doctors, days, requests (per
+ * doctor), warmup or runs.
+ *
+ */
+
+public class SchedulerBenchmark{
+	static final int[] SLOTS = {
+		TimeSlot.parse("8:00-10:00"), TimeSlot.parse("10:00-12:00"), TimeSlot.parse("13:00-15:00"), TimeSlot.parse("15:00-17:00")};
+	static final int[] SHIFTS = {TimeSlot.parse("8:00-17:00"), TimeSlot.parse("8:00-12:00"), TimeSlot.parse("13:00-17:00")};
+
+	int hospitals = 10;
+	int staff = 5000;
+	int doctors = 2000;
+	int days = 30;
+	int requests = 3;
+	int warmup = 5;
+	int runs = 10;
+
+	public static void main(String[] args){
+		SchedulerBenchmark bench = new SchedulerBenchmark();
+		for (String arg : args){
+			bench.set(arg);
+		}//end for
+		StaffScheduler.Problem problem = bench.generate(new Random(42));
+		int appointments = bench.doctors * bench.days * SLOTS.length;
+		System.out.printf("%d hospitals, %d staff, %d doctors, %d appointments over %d days%n",
+			bench.hospitals, bench.staff, bench.doctors, appointments, bench.days);
+
+		StaffScheduler.Plan plan = null;
+		for (int i = 0; i < bench.warmup; ++i){
+			plan = StaffScheduler.solve(problem);
+		}//end for
+		long[] nanos = new long[bench.runs];
+		for (int i = 0; i < bench.runs; ++i){
+			long start = System.nanoTime();
+			plan = StaffScheduler.solve(problem);
+			nanos[i] = System.nanoTime() - start;
+		}//end for
+		Arrays.sort(nanos);
+		System.out.printf("staffed %d, unstaffed %d%n", plan.assigned(), plan.unassigned);
+		System.out.printf("solve p50 %.1f ms, best %.1f ms, %.0f appointments/s%n",
+			MenuBenchmark.percentile(nanos, 0.50) / 1e6, nanos[0] / 1e6, appointments / (MenuBenchmark.percentile(nanos, 0.50) / 1e9));
+	}
+
+	void set(String assignment){
+		int eq = assignment.indexOf('=');
+		if (eq < 0) throw new IllegalArgumentException("Expected name=value: " + assignment);
+		String name = assignment.substring(0, eq);
+		int value = Integer.parseInt(assignment.substring(eq + 1));
+		if (name.equals("hospitals")) this.hospitals = value;
+		else if (name.equals("staff")) this.staff = value;
+		else if (name.equals("doctors")) this.doctors = value;
+		else if (name.equals("days")) this.days = value;
+		else if (name.equals("requests")) this.requests = value;
+		else if (name.equals("warmup")) this.warmup = value;
+		else if (name.equals("runs")) this.runs = value;
+		else throw new IllegalArgumentException("Unknown setting " + name);
+	}
+
+	/**
+	 * Method to build the problem: staff member s and doctor d work at
+	 * hospital s % hospitals and d % hospitals, as in WorkloadGenerator.
+	 */
+	StaffScheduler.Problem generate(Random random){
+		StaffScheduler.Problem problem = new StaffScheduler.Problem(this.days);
+		int staffPerHospital = Math.max(1, this.staff / this.hospitals);
+		int id = 0;
+		for (int d = 0; d < this.doctors; ++d){
+			StaffScheduler.Hospital h = problem.hospital(d % this.hospitals);
+			for (int r = 0; r < this.requests; ++r){
+				int s = d % this.hospitals + this.hospitals * random.nextInt(staffPerHospital);
+				h.addRequest(d, s, 1 + random.nextInt(4), SHIFTS[random.nextInt(SHIFTS.length)]);
+			}//end for
+			for (int day = 0; day < this.days; ++day){
+				for (int slot : SLOTS){
+					h.addAppointment(id++, d, day, slot);
+				}//end for
+			}//end for
+		}//end for
+		return problem;
+	}
+}//end SchedulerBenchmark
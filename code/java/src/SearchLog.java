@@ -0,0 +1,225 @@
+import java.sql.SQLException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class records patient searches in the searches table off the booking
+ * path. record() only appends the event to a lock-free queue; a background
+ * thread drains it every dbproject.searchLog.flushMs, or as soon as a batch
+ * is ready, drops the repeats within the batch and writes the rest with one
+ * INSERT ... ON CONFLICT DO NOTHING. Repeats across batches are left to the
+ * (hid, pid, aid) key.
+ *
+ * The queue is bounded: a caller finding it full writes a batch itself, so
+ * callers only slow down when the writer cannot keep up, and memory stays
+ * bounded. close() writes whatever is still queued.
+ *
+ * A batch that fails for a constraint, e.g. a row of an appointment archived
+ * meanwhile, is written again row by row so only the bad rows are lost. One
+ * that fails otherwise, e.g. with the database down, is tried once more
+ * after dbproject.searchLog.retryMs and then dropped.
+ *
+ */
+
+public class SearchLog{
+	//events queued before callers have to write, overridable with -Ddbproject.searchLog.capacity=...
+	static final int CAPACITY = Integer.getInteger("dbproject.searchLog.capacity", 65536);
+	//most events per INSERT
+	static final int BATCH = Integer.getInteger("dbproject.searchLog.batch", 4096);
+	//longest an event waits before it is written
+	static final long FLUSH_INTERVAL = Long.getLong("dbproject.searchLog.flushMs", 200L);
+	//wait before writing a failed batch again
+	static final long RETRY_BACKOFF = Long.getLong("dbproject.searchLog.retryMs", 1000L);
+
+	/**
+	 * One search: patient pid looked at appointment aid of hospital hid.
+	 */
+	static final class Search{
+		final int hid, pid, aid;
+
+		Search(int hid, int pid, int aid){
+			this.hid = hid;
+			this.pid = pid;
+			this.aid = aid;
+		}
+
+		public boolean equals(Object o){
+			if (!(o instanceof Search)) return false;
+			Search s = (Search) o;
+			return s.hid == this.hid && s.pid == this.pid && s.aid == this.aid;
+		}
+
+		public int hashCode(){
+			return (this.hid * 31 + this.pid) * 31 + this.aid;
+		}
+	}
+
+	private final DBproject _esql;
+	private final ConcurrentLinkedQueue<Search> _queue = new ConcurrentLinkedQueue<Search>();
+	//events in _queue, kept apart because ConcurrentLinkedQueue.size() walks the queue
+	private final AtomicInteger _pending = new AtomicInteger();
+	private final AtomicLong _recorded = new AtomicLong();
+	private final AtomicLong _coalesced = new AtomicLong();
+	private final AtomicLong _written = new AtomicLong();
+	private final AtomicLong _dropped = new AtomicLong();
+	private final AtomicLong _callerFlushes = new AtomicLong();
+	private Thread _writer;
+	private volatile boolean _closed = false;
+
+	public SearchLog(DBproject esql){
+		this._esql = esql;
+	}
+
+	/**
+	 * Method to start the background writer.
+	 */
+	public synchronized void start(){
+		if (this._writer != null) return;
+		this._writer = new Thread(new Runnable(){
+			public void run(){ write(); }
+		}, "search-log-writer");
+		this._writer.setDaemon(true);
+		this._writer.start();
+	}
+
+	/**
+	 * Method to record a search. Returns at once unless the queue is full.
+	 */
+	public void record(int hid, int pid, int aid){
+		this._recorded.incrementAndGet();
+		this._queue.offer(new Search(hid, pid, aid));
+		int pending = this._pending.incrementAndGet();
+		if (pending >= CAPACITY || this._closed){
+			// the writer is behind, or gone after close
+			this._callerFlushes.incrementAndGet();
+			flush();
+		}else if (pending == BATCH){
+			LockSupport.unpark(this._writer);
+		}//end if
+	}
+
+	private void write(){
+		while (!this._closed){
+			LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL));
+			while (this._pending.get() > 0 && !this._closed){
+				if (flush() == 0) break;
+			}//end while
+		}//end while
+	}
+
+	/**
+	 * Method to write up to BATCH queued events.
+	 *
+	 * @return the number of events taken off the queue
+	 */
+	int flush(){
+		Set<Search> batch = new LinkedHashSet<Search>();
+		int taken = 0;
+		Search s;
+		while (taken < BATCH && (s = this._queue.poll()) != null){
+			++taken;
+			batch.add(s);
+		}//end while
+		if (taken == 0) return 0;
+		this._pending.addAndGet(-taken);
+		this._coalesced.addAndGet(taken - batch.size());
+
+		int[] hids = new int[batch.size()];
+		int[] pids = new int[batch.size()];
+		int[] aids = new int[batch.size()];
+		int i = 0;
+		for (Search e : batch){
+			hids[i] = e.hid;
+			pids[i] = e.pid;
+			aids[i] = e.aid;
+			++i;
+		}//end for
+		for (int attempt = 0; ; ++attempt){
+			try{
+				this._esql.executeUpdate(Query.ADD_SEARCHES, hids, pids, aids);
+				this._written.addAndGet(batch.size());
+				return taken;
+			}catch (SQLException e){
+				if (constraintViolation(e)) break;
+				if (attempt > 0 || !backoff()){
+					this._dropped.addAndGet(batch.size());
+					return taken;
+				}//end if
+			}//end try
+		}//end for
+		// one bad row fails the whole INSERT
+		int left = batch.size();
+		for (Search e : batch){
+			--left;
+			if (!flushOne(e)){
+				// not the row's fault, the rest would fail the same way
+				this._dropped.addAndGet(left);
+				break;
+			}//end if
+		}//end for
+		return taken;
+	}//end flush
+
+	/*
+	 * Returns false when the row could not be written for a reason other
+	 * than its own, e.g. a lost connection.
+	 */
+	private boolean flushOne(Search s){
+		try{
+			this._esql.executeUpdate(Query.ADD_SEARCH, s.hid, s.pid, s.aid);
+			this._written.incrementAndGet();
+			return true;
+		}catch (SQLException e){
+			this._dropped.incrementAndGet();
+			return constraintViolation(e);
+		}//end try
+	}
+
+	//SQLState class 23, integrity constraint violation
+	private static boolean constraintViolation(SQLException e){
+		return e.getSQLState() != null && e.getSQLState().startsWith("23");
+	}
+
+	private static boolean backoff(){
+		try{
+			Thread.sleep(RETRY_BACKOFF);
+			return true;
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			return false;
+		}//end try
+	}
+
+	/**
+	 * Method to stop the writer and write every queued event.
+	 */
+	public void close(){
+		Thread writer;
+		synchronized (this){
+			this._closed = true;
+			writer = this._writer;
+		}
+		if (writer != null){
+			LockSupport.unpark(writer);
+			try{
+				writer.join();
+			}catch (InterruptedException e){
+				Thread.currentThread().interrupt();
+			}//end try
+		}//end if
+		while (flush() > 0){
+			// drains what was queued before close
+		}//end while
+	}
+
+	public String stats(){
+		return String.format("recorded=%d coalesced=%d written=%d dropped=%d pending=%d caller_flushes=%d",
+			this._recorded.get(), this._coalesced.get(), this._written.get(), this._dropped.get(),
+			this._pending.get(), this._callerFlushes.get());
+	}
+}//end SearchLog
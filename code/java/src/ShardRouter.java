@@ -0,0 +1,294 @@
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * This class spreads the hospitals over several Postgres instances, one
+ * DBproject each. A hospital's appointments, has_appointment, books,
+ * searches, schedules and the patients booking there live on its shard.
+ * The reference tables Hospital, Department and Doctor are kept on every
+ * shard, so each can check its own foreign keys and resolve a doctor or a
+ * department name locally. New doctors are added to every shard.
+ *
+ * Operations keyed by a doctor or department go to the shard of its
+ * hospital, looked up through the reference cache of the home shard, the
+ * one DBproject was started on, which also holds every hospital not mapped
+ * elsewhere. Reports spanning hospitals run on all shards in parallel and
+ * their rows are merged, each with the number of its shard appended since
+ * appointment and patient IDs are only unique within a shard. Shards are
+ * numbered from 0 for the home one in the order of dbproject.shards, listed
+ * as
+ *
+ *   [dbname@]port:hospitals;[dbname@]port:hospitals;...
+ *
+ * where hospitals is a comma separated list of IDs and ranges, e.g.
+ * -Ddbproject.shards=5433:0-4;5434:5-9. Without it the home shard holds
+ * every hospital.
+ *
+ */
+
+public class ShardRouter{
+	static final String SHARDS = System.getProperty("dbproject.shards", "");
+
+	/**
+	 * An operation run on every shard.
+	 */
+	interface Shardwise{
+		List<List<String>> run(DBproject shard) throws Exception;
+	}
+
+	private final DBproject _home;
+	//home first
+	private final List<DBproject> _shards = new ArrayList<DBproject>();
+	private final Map<Integer, DBproject> _byHospital = new HashMap<Integer, DBproject>();
+
+	public ShardRouter(DBproject home){
+		this._home = home;
+		this._shards.add(home);
+	}
+
+	/**
+	 * Method to connect to the shards of dbproject.shards.
+	 *
+	 * @param home the DBproject of the home shard
+	 * @param dbname database of shards that name none
+	 * @param user login on every shard
+	 * @throws IllegalArgumentException when the setting cannot be read
+	 */
+	public static ShardRouter configure(DBproject home, String dbname, String user) throws SQLException {
+		ShardRouter router = new ShardRouter(home);
+		for (String group : SHARDS.split(";")){
+			group = group.trim();
+			if (group.isEmpty()) continue;
+			int colon = group.indexOf(':');
+			if (colon < 0) throw new IllegalArgumentException("Expected [dbname@]port:hospitals in " + group);
+			String target = group.substring(0, colon);
+			int at = target.indexOf('@');
+			String db = at < 0 ? dbname : target.substring(0, at);
+			String port = target.substring(at + 1);
+			DBproject shard = new DBproject(db, port, user, "");
+			router.addShard(shard, parseHospitals(group.substring(colon + 1)));
+		}//end for
+		return router;
+	}
+
+	static List<Integer> parseHospitals(String spec){
+		List<Integer> ids = new ArrayList<Integer>();
+		for (String part : spec.split(",")){
+			String[] range = part.trim().split("-");
+			int first = Integer.parseInt(range[0].trim());
+			int last = range.length > 1 ? Integer.parseInt(range[1].trim()) : first;
+			for (int h = first; h <= last; ++h){
+				ids.add(h);
+			}//end for
+		}//end for
+		return ids;
+	}
+
+	/**
+	 * Method to route some hospitals to a shard.
+	 */
+	public void addShard(DBproject shard, List<Integer> hospitals){
+		if (!this._shards.contains(shard)) this._shards.add(shard);
+		for (int hid : hospitals){
+			this._byHospital.put(hid, shard);
+		}//end for
+	}
+
+	public List<DBproject> shards(){
+		return Collections.unmodifiableList(this._shards);
+	}
+
+	public DBproject home(){
+		return this._home;
+	}
+
+	/**
+	 * Method to tell whether hospitals are spread over more than the home
+	 * shard, so that callers must name a hospital, doctor or department.
+	 */
+	public boolean sharded(){
+		return this._shards.size() > 1;
+	}
+
+	public DBproject forHospital(int hid){
+		DBproject shard = this._byHospital.get(hid);
+		return shard == null ? this._home : shard;
+	}
+
+	/**
+	 * @throws IllegalStateException when no doctor has the ID
+	 */
+	public DBproject forDoctor(int doctor_id) throws SQLException {
+		if (this._shards.size() == 1) return this._home;
+		int hid = this._home.getReferenceCache().hospitalOfDoctor(doctor_id);
+		if (hid < 0) throw new IllegalStateException("Invalid Doctor ID " + doctor_id);
+		return forHospital(hid);
+	}
+
+	/**
+	 * @throws IllegalStateException when no department has the ID
+	 */
+	public DBproject forDepartment(int dept_id) throws SQLException {
+		if (this._shards.size() == 1) return this._home;
+		ReferenceCache.Department dp = this._home.getReferenceCache().department(dept_id);
+		if (dp == null) throw new IllegalStateException("Invalid Department ID " + dept_id);
+		return forHospital(dp.hid);
+	}
+
+	/**
+	 * Method to add a doctor to every shard under one ID from the home
+	 * shard. Not atomic across shards, see copyDoctor.
+	 *
+	 * @return the doctor ID
+	 * @throws SQLException when the doctor could not be added to the home
+	 * shard, or was added there but not copied to every other shard
+	 */
+	public int addDoctor(String name, String specialty, int did) throws SQLException {
+		int doctor_id = this._home.addDoctor(name, specialty, did);
+		copyDoctor(doctor_id, name, specialty, did);
+		return doctor_id;
+	}
+
+	/**
+	 * Method to copy a doctor of the home shard to the shards missing it,
+	 * e.g. after addDoctor failed on some of them.
+	 *
+	 * @throws IllegalStateException when the home shard has no such doctor
+	 */
+	public void copyDoctor(int doctor_id) throws SQLException {
+		ReferenceCache.Doctor dc = this._home.getReferenceCache().doctor(doctor_id);
+		if (dc == null) throw new IllegalStateException("Invalid Doctor ID " + doctor_id);
+		copyDoctor(dc.id, dc.name, dc.specialty, dc.did);
+	}
+
+	/*
+	 * Every shard is tried, so one being down does not keep the doctor off
+	 * the others; rows already there are left alone.
+	 */
+	private void copyDoctor(int doctor_id, String name, String specialty, int did) throws SQLException {
+		SQLException failed = null;
+		List<Integer> missing = new ArrayList<Integer>();
+		for (int i = 1; i < this._shards.size(); ++i){
+			DBproject shard = this._shards.get(i);
+			try{
+				shard.executeUpdate(Query.COPY_DOCTOR, doctor_id, name, specialty, did);
+				shard.getReferenceCache().invalidateDoctor(doctor_id);
+			}catch (SQLException e){
+				missing.add(i);
+				if (failed == null) failed = e;
+			}//end try
+		}//end for
+		if (failed != null){
+			throw new SQLException("Doctor " + doctor_id + " is missing on shards " + missing + ", copy it again: " + failed.getMessage(),
+				failed.getSQLState(), failed);
+		}//end if
+	}
+
+	/*
+	 * Reports over every hospital, each shard answering for its own.
+	 */
+
+	public List<List<String>> listAvailableAppointmentsOfDepartment(final String name, final Date date) throws SQLException {
+		return gather(new Shardwise(){
+			public List<List<String>> run(DBproject shard) throws Exception { return shard.listAvailableAppointmentsOfDepartment(name, date); }
+		}, null);
+	}
+
+	public List<List<String>> listFreeSlotsOfDepartment(final String name, final Date date, final String window) throws SQLException {
+		return gather(new Shardwise(){
+			public List<List<String>> run(DBproject shard) throws Exception { return shard.listFreeSlotsOfDepartment(name, date, window); }
+		}, new Comparator<List<String>>(){
+			// by slot start, as each shard returned them
+			public int compare(List<String> a, List<String> b){
+				return Integer.compare(TimeSlot.start(TimeSlot.parse(a.get(2))), TimeSlot.start(TimeSlot.parse(b.get(2))));
+			}
+		});
+	}
+
+	public List<List<String>> listStatusCountsPerDoctor() throws SQLException {
+		return gather(new Shardwise(){
+			public List<List<String>> run(DBproject shard) throws Exception { return shard.listStatusCountsPerDoctor(); }
+		}, descending(6));
+	}
+
+	public List<List<String>> listPatientsWithStatusPerDoctor(final String status) throws SQLException {
+		return gather(new Shardwise(){
+			public List<List<String>> run(DBproject shard) throws Exception { return shard.listPatientsWithStatusPerDoctor(status); }
+		}, descending(2));
+	}
+
+	/*
+	 * Largest count column first, then doctor ID, as the report queries order.
+	 */
+	private static Comparator<List<String>> descending(final int column){
+		return new Comparator<List<String>>(){
+			public int compare(List<String> a, List<String> b){
+				int c = Long.compare(Long.parseLong(b.get(column)), Long.parseLong(a.get(column)));
+				return c != 0 ? c : Integer.compare(Integer.parseInt(a.get(0)), Integer.parseInt(b.get(0)));
+			}
+		};
+	}
+
+	/**
+	 * Method to run an operation on every shard at once and merge the rows,
+	 * appending the shard number to each. With the home shard alone the rows
+	 * are returned as they are.
+	 *
+	 * @param order the order of the merged rows, null to keep shard order
+	 */
+	private List<List<String>> gather(final Shardwise op, Comparator<List<String>> order) throws SQLException {
+		if (this._shards.size() == 1){
+			try{
+				return op.run(this._home);
+			}catch (SQLException | RuntimeException e){
+				throw e;
+			}catch (Exception e){
+				throw new SQLException(e);
+			}//end try
+		}//end if
+		List<CompletableFuture<List<List<String>>>> futures = new ArrayList<CompletableFuture<List<List<String>>>>();
+		// the shard number goes after the report's own columns, so orders keep their column numbers
+		for (final DBproject shard : this._shards){
+			futures.add(shard.getAsync().submit(new Callable<List<List<String>>>(){
+				public List<List<String>> call() throws Exception { return op.run(shard); }
+			}));
+		}//end for
+		List<List<String>> rows = new ArrayList<List<String>>();
+		try{
+			for (int i = 0; i < futures.size(); ++i){
+				String shard = Integer.toString(i);
+				for (List<String> row : futures.get(i).join()){
+					List<String> tagged = new ArrayList<String>(row.size() + 1);
+					tagged.addAll(row);
+					tagged.add(shard);
+					rows.add(tagged);
+				}//end for
+			}//end for
+		}catch (CompletionException e){
+			Throwable cause = e.getCause();
+			if (cause instanceof SQLException) throw (SQLException) cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			throw new SQLException(cause);
+		}//end try
+		if (order != null) Collections.sort(rows, order);
+		return rows;
+	}//end gather
+
+	/**
+	 * Method to disconnect from every shard but the home one.
+	 */
+	public void close(){
+		for (int i = 1; i < this._shards.size(); ++i){
+			this._shards.get(i).cleanup();
+		}//end for
+	}
+}//end ShardRouter
@@ -0,0 +1,115 @@
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.DayOfWeek;
+import java.util.Locale;
+
+/**
+ * This class describes recurring availability: some time slots on some
+ * weekdays of a date range, for one doctor or for every doctor of a
+ * department. open() turns it into AV appointments linked to the doctors
+ * with one call of open_slots (migration V009), which generates the rows on
+ * the server, so a year of a whole department costs one round-trip instead
+ * of one AddAppointment per slot.
+ *
+ */
+
+public class SlotTemplate{
+	//first migration with open_slots
+	static final int RECURRING_SLOT_VERSION = 9;
+	static final int ALL_WEEKDAYS = 0x7f;
+	static final int WORKING_DAYS = 0x1f;
+
+	private final int _id;
+	private final boolean _department;
+	//bit 0 Monday ... bit 6 Sunday
+	private final int _weekdays;
+	private final String[] _slots;
+	private final Date _from;
+	private final Date _to;
+
+	private SlotTemplate(int id, boolean department, int weekdays, String[] slots, Date from, Date to){
+		if (weekdays == 0 || (weekdays & ~ALL_WEEKDAYS) != 0) throw new IllegalArgumentException("Invalid weekdays");
+		if (slots.length == 0) throw new IllegalArgumentException("No time slots");
+		if (to.before(from)) throw new IllegalArgumentException("The range ends before it starts");
+		this._id = id;
+		this._department = department;
+		this._weekdays = weekdays;
+		this._slots = new String[slots.length];
+		int[] packed = new int[slots.length];
+		for (int i = 0; i < slots.length; ++i){
+			packed[i] = TimeSlot.parse(slots[i].trim());
+			if (packed[i] == TimeSlot.INVALID) throw new IllegalArgumentException("Invalid time slot " + slots[i]);
+			// stored as AddAppointment stores them, so repeats are recognized
+			this._slots[i] = TimeSlot.format(packed[i]);
+			// each would go to every doctor, so two that overlap could never both be opened
+			for (int j = 0; j < i; ++j){
+				if (TimeSlot.overlaps(packed[i], packed[j])){
+					throw new IllegalArgumentException("Time slots " + this._slots[j] + " and " + this._slots[i] + " overlap");
+				}//end if
+			}//end for
+		}//end for
+		this._from = from;
+		this._to = to;
+	}
+
+	public static SlotTemplate forDoctor(int doctor_id, int weekdays, String[] slots, Date from, Date to){
+		return new SlotTemplate(doctor_id, false, weekdays, slots, from, to);
+	}
+
+	public static SlotTemplate forDepartment(int dept_id, int weekdays, String[] slots, Date from, Date to){
+		return new SlotTemplate(dept_id, true, weekdays, slots, from, to);
+	}
+
+	/**
+	 * Method to read a set of weekdays such as Mon-Fri, Mon,Wed,Fri or
+	 * Sat-Sun; names may be abbreviated to their first three letters.
+	 *
+	 * @return the weekday mask, bit 0 for Monday
+	 * @throws IllegalArgumentException when a day is not recognized
+	 */
+	public static int parseWeekdays(String spec){
+		int mask = 0;
+		for (String part : spec.split(",")){
+			String[] range = part.trim().split("-");
+			if (range.length > 2) throw new IllegalArgumentException("Invalid weekdays " + part);
+			int first = weekday(range[0]);
+			int last = range.length == 2 ? weekday(range[1]) : first;
+			// wraps around Sunday, e.g. Sat-Mon
+			for (int d = first; ; d = (d + 1) % 7){
+				mask |= 1 << d;
+				if (d == last) break;
+			}//end for
+		}//end for
+		return mask;
+	}
+
+	private static int weekday(String name){
+		String n = name.trim().toUpperCase(Locale.ROOT);
+		if (n.length() >= 3){
+			for (DayOfWeek d : DayOfWeek.values()){
+				if (d.name().startsWith(n)) return d.getValue() - 1;
+			}//end for
+		}//end if
+		throw new IllegalArgumentException("Unknown weekday " + name);
+	}
+
+	/**
+	 * Method to add the appointments of the template. Slots overlapping one
+	 * the doctor already has are left out (with migration V011, only equal
+	 * ones before), so reopening a range only adds what is missing.
+	 *
+	 * @return the number of appointments added
+	 * @throws java.sql.SQLException when the insert failed, e.g. before
+	 * V011 a new slot overlaps one of the doctor's existing slots
+	 * @throws IllegalStateException when migration V009 is not applied
+	 */
+	public int open(DBproject esql) throws SQLException {
+		if (esql.getSchemaVersion() < RECURRING_SLOT_VERSION) throw new IllegalStateException("Recurring slots need migration V009");
+		if (this._department){
+			return esql.executeQueryAndReturnColumns(Query.OPEN_DEPARTMENT_SLOTS, this._id, this._from, this._to, this._weekdays,
+				this._slots, IdAllocator.BLOCK_SIZE).getInt(0, 0);
+		}//end if
+		return esql.executeQueryAndReturnColumns(Query.OPEN_SLOTS, new int[]{this._id}, this._from, this._to, this._weekdays,
+			this._slots, IdAllocator.BLOCK_SIZE).getInt(0, 0);
+	}
+}//end SlotTemplate
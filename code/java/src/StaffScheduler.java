@@ -0,0 +1,364 @@
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This class assigns staff to the upcoming appointments nobody is scheduled
+ * for yet. request_maintenance says which staff member a doctor wants during
+ * which time slot and how many patients per hour that staff member takes;
+ * an appointment of the doctor gets the least loaded of those staff members
+ * whose slot covers it and who are under their patient_per_hour in every
+ * hour the appointment spans. Appointments already in schedules count
+ * towards the load of their staff.
+ *
+ * The relations are loaded once into int arrays per hospital. Staff only
+ * serve doctors of their own hospital, so the hospitals are solved
+ * independently, in parallel on the fork/join pool. The assignments are
+ * written back to schedules with one INSERT. A run is one transaction
+ * holding an advisory lock, so concurrent runs plan one after the other
+ * instead of both staffing the same appointments from the same loads.
+ *
+ *   java -cp lib/*:bin/ DBproject <dbname> <port> <user> --schedule [days]
+ *
+ */
+
+public class StaffScheduler{
+	//days planned from today, overridable on the command line
+	static final int DEFAULT_DAYS = Integer.getInteger("dbproject.schedule.days", 30);
+	//sort keys pack the row index into their low bits
+	private static final int INDEX_BITS = 24;
+
+	/**
+	 * Growable array of ints.
+	 */
+	static final class IntList{
+		int[] values = new int[16];
+		int size = 0;
+
+		void add(int v){
+			if (this.size == this.values.length) this.values = Arrays.copyOf(this.values, this.size * 2);
+			this.values[this.size++] = v;
+		}
+
+		int get(int i){
+			return this.values[i];
+		}
+	}
+
+	/**
+	 * The input of one hospital: request i is staff reqStaff[i] for doctor
+	 * reqDoctor[i] during [reqStart[i], reqEnd[i]) minutes, taking
+	 * reqCapacity[i] patients per hour; appointment i is apptId[i] of doctor
+	 * apptDoctor[i] on day apptDay[i] (days since the first planned day)
+	 * during [apptStart[i], apptEnd[i]); busy i is an existing schedule.
+	 */
+	static final class Hospital{
+		final int id;
+		final IntList reqDoctor = new IntList(), reqStaff = new IntList(), reqCapacity = new IntList(), reqStart = new IntList(), reqEnd = new IntList();
+		final IntList apptId = new IntList(), apptDoctor = new IntList(), apptDay = new IntList(), apptStart = new IntList(), apptEnd = new IntList();
+		final IntList busyStaff = new IntList(), busyDay = new IntList(), busyStart = new IntList(), busyEnd = new IntList();
+
+		Hospital(int id){
+			this.id = id;
+		}
+
+		void addRequest(int doctor, int staff, int capacity, int slot){
+			this.reqDoctor.add(doctor);
+			this.reqStaff.add(staff);
+			this.reqCapacity.add(capacity);
+			this.reqStart.add(TimeSlot.start(slot));
+			this.reqEnd.add(TimeSlot.end(slot));
+		}
+
+		void addAppointment(int appnt_ID, int doctor, int day, int slot){
+			this.apptId.add(appnt_ID);
+			this.apptDoctor.add(doctor);
+			this.apptDay.add(day);
+			this.apptStart.add(TimeSlot.start(slot));
+			this.apptEnd.add(TimeSlot.end(slot));
+		}
+
+		void addBusy(int staff, int day, int slot){
+			this.busyStaff.add(staff);
+			this.busyDay.add(day);
+			this.busyStart.add(TimeSlot.start(slot));
+			this.busyEnd.add(TimeSlot.end(slot));
+		}
+	}
+
+	/**
+	 * Everything to plan for a range of days.
+	 */
+	static final class Problem{
+		final int days;
+		final Map<Integer, Hospital> hospitals = new HashMap<Integer, Hospital>();
+
+		Problem(int days){
+			this.days = days;
+		}
+
+		Hospital hospital(int id){
+			Hospital h = this.hospitals.get(id);
+			if (h == null){
+				h = new Hospital(id);
+				this.hospitals.put(id, h);
+			}//end if
+			return h;
+		}
+	}
+
+	/**
+	 * The staff chosen for each appointment, -1 where nobody had room.
+	 */
+	static final class Plan{
+		final int[] appointments;
+		final int[] staff;
+		int unassigned = 0;
+
+		Plan(int size){
+			this.appointments = new int[size];
+			this.staff = new int[size];
+		}
+
+		int assigned(){
+			return this.appointments.length - this.unassigned;
+		}
+
+		static Plan merge(Plan a, Plan b){
+			Plan p = new Plan(a.appointments.length + b.appointments.length);
+			System.arraycopy(a.appointments, 0, p.appointments, 0, a.appointments.length);
+			System.arraycopy(b.appointments, 0, p.appointments, a.appointments.length, b.appointments.length);
+			System.arraycopy(a.staff, 0, p.staff, 0, a.staff.length);
+			System.arraycopy(b.staff, 0, p.staff, a.staff.length, b.staff.length);
+			p.unassigned = a.unassigned + b.unassigned;
+			return p;
+		}
+	}
+
+	private final DBproject _esql;
+
+	public StaffScheduler(DBproject esql){
+		this._esql = esql;
+	}
+
+	/**
+	 * Method to plan the staff of the unstaffed appointments of the next
+	 * days and save the plan to schedules.
+	 *
+	 * @param days the number of days from today to plan
+	 * @return a one-line summary
+	 * @throws java.sql.SQLException when loading or saving failed
+	 */
+	public String run(final int days) throws SQLException {
+		final long[] times = new long[4];
+		final Plan[] plan = new Plan[1];
+		int written = this._esql.inTransaction(new DBproject.Work<Integer>(){
+			public Integer run(ConnectionPool.PooledConnection pc) throws SQLException {
+				DBproject.bind(pc, Query.LOCK_SCHEDULER).executeQuery().close();
+				times[0] = System.nanoTime();
+				Problem problem = load(pc, LocalDate.now(), days);
+				times[1] = System.nanoTime();
+				plan[0] = solve(problem);
+				times[2] = System.nanoTime();
+				return save(pc, plan[0]);
+			}
+		});
+		long started = times[0], loaded = times[1], solved = times[2];
+		return String.format("%d appointment(s) staffed, %d without free staff (load %d ms, solve %d ms, save %d ms)",
+			written, plan[0].unassigned, (loaded - started) / 1000000, (solved - loaded) / 1000000, (System.nanoTime() - solved) / 1000000);
+	}//end run
+
+	/**
+	 * Method to read the requests, the unstaffed appointments and the
+	 * existing schedules of the days [from, from + days).
+	 */
+	Problem load(ConnectionPool.PooledConnection pc, LocalDate from, int days) throws SQLException {
+		Problem problem = new Problem(days);
+		int first = (int) from.toEpochDay();
+		Date begin = Date.valueOf(from);
+		Date end = Date.valueOf(from.plusDays(days - 1));
+
+		ColumnarResult r = query(pc, Query.SCHEDULE_REQUESTS);
+		for (int i = 0; i < r.rowCount(); ++i){
+			int slot = TimeSlot.parse(r.getString(i, 4));
+			if (slot == TimeSlot.INVALID || r.getInt(i, 3) <= 0) continue;
+			problem.hospital(r.getInt(i, 0)).addRequest(r.getInt(i, 1), r.getInt(i, 2), r.getInt(i, 3), slot);
+		}//end for
+		r = query(pc, Query.SCHEDULE_APPOINTMENTS, begin, end);
+		for (int i = 0; i < r.rowCount(); ++i){
+			int slot = TimeSlot.parse(r.getString(i, 4));
+			if (slot == TimeSlot.INVALID) continue;
+			problem.hospital(r.getInt(i, 0)).addAppointment(r.getInt(i, 2), r.getInt(i, 1), r.getEpochDay(i, 3) - first, slot);
+		}//end for
+		r = query(pc, Query.SCHEDULE_BUSY, begin, end);
+		for (int i = 0; i < r.rowCount(); ++i){
+			int slot = TimeSlot.parse(r.getString(i, 3));
+			if (slot == TimeSlot.INVALID) continue;
+			problem.hospital(r.getInt(i, 0)).addBusy(r.getInt(i, 1), r.getEpochDay(i, 2) - first, slot);
+		}//end for
+		return problem;
+	}//end load
+
+	private static ColumnarResult query(ConnectionPool.PooledConnection pc, Query query, Object... params) throws SQLException {
+		ResultSet rs = DBproject.bind(pc, query, params).executeQuery();
+		try{
+			return ColumnarResult.read(rs);
+		}finally{
+			rs.close();
+		}
+	}
+
+	/**
+	 * Method to solve every hospital of a problem on the fork/join pool.
+	 */
+	static Plan solve(Problem problem){
+		List<Hospital> hospitals = new ArrayList<Hospital>(problem.hospitals.values());
+		if (hospitals.isEmpty()) return new Plan(0);
+		return ForkJoinPool.commonPool().invoke(new Solve(hospitals, 0, hospitals.size(), problem.days));
+	}
+
+	/**
+	 * Solves the hospitals [lo, hi) of a list, halving it until one is left.
+	 */
+	private static final class Solve extends RecursiveTask<Plan>{
+		private static final long serialVersionUID = 1L;
+		private final List<Hospital> _hospitals;
+		private final int _lo, _hi, _days;
+
+		Solve(List<Hospital> hospitals, int lo, int hi, int days){
+			this._hospitals = hospitals;
+			this._lo = lo;
+			this._hi = hi;
+			this._days = days;
+		}
+
+		protected Plan compute(){
+			if (this._hi - this._lo == 1) return solve(this._hospitals.get(this._lo), this._days);
+			int mid = (this._lo + this._hi) >>> 1;
+			Solve left = new Solve(this._hospitals, this._lo, mid, this._days);
+			left.fork();
+			Plan right = new Solve(this._hospitals, mid, this._hi, this._days).compute();
+			return Plan.merge(left.join(), right);
+		}
+	}//end Solve
+
+	/**
+	 * Method to staff the appointments of one hospital in date and start
+	 * order, each with the least loaded requested staff member with room.
+	 */
+	static Plan solve(Hospital h, int days){
+		// dense staff numbers, so the load is one flat array of staff x day x hour
+		Map<Integer, Integer> staffIndex = new HashMap<Integer, Integer>();
+		int[] reqStaff = new int[h.reqStaff.size];
+		for (int i = 0; i < reqStaff.length; ++i){
+			reqStaff[i] = index(staffIndex, h.reqStaff.get(i));
+		}//end for
+		int[] load = new int[staffIndex.size() * days * 24];
+		for (int i = 0; i < h.busyStaff.size; ++i){
+			Integer s = staffIndex.get(h.busyStaff.get(i));
+			int day = h.busyDay.get(i);
+			if (s == null || day < 0 || day >= days) continue;
+			int base = (s * days + day) * 24;
+			for (int hour = h.busyStart.get(i) / 60; hour <= (h.busyEnd.get(i) - 1) / 60; ++hour){
+				++load[base + hour];
+			}//end for
+		}//end for
+
+		// requests of each doctor
+		Map<Integer, IntList> byDoctor = new HashMap<Integer, IntList>();
+		for (int i = 0; i < reqStaff.length; ++i){
+			IntList l = byDoctor.get(h.reqDoctor.get(i));
+			if (l == null){
+				l = new IntList();
+				byDoctor.put(h.reqDoctor.get(i), l);
+			}//end if
+			l.add(i);
+		}//end for
+
+		// earliest appointments are served first
+		int n = h.apptId.size;
+		if (n >= 1 << INDEX_BITS) throw new IllegalArgumentException("Too many appointments in hospital " + h.id);
+		long[] order = new long[n];
+		for (int i = 0; i < n; ++i){
+			order[i] = ((long) h.apptDay.get(i) << 40) | ((long) h.apptStart.get(i) << INDEX_BITS) | i;
+		}//end for
+		Arrays.sort(order);
+
+		Plan plan = new Plan(n);
+		for (int k = 0; k < n; ++k){
+			int i = (int) (order[k] & ((1 << INDEX_BITS) - 1));
+			int day = h.apptDay.get(i);
+			int start = h.apptStart.get(i);
+			int end = h.apptEnd.get(i);
+			int best = -1;
+			int bestLoad = Integer.MAX_VALUE;
+			IntList candidates = byDoctor.get(h.apptDoctor.get(i));
+			if (candidates != null && day >= 0 && day < days){
+				for (int c = 0; c < candidates.size; ++c){
+					int r = candidates.get(c);
+					if (start < h.reqStart.get(r) || end > h.reqEnd.get(r)) continue;
+					int base = (reqStaff[r] * days + day) * 24;
+					int peak = 0;
+					for (int hour = start / 60; hour <= (end - 1) / 60; ++hour){
+						peak = Math.max(peak, load[base + hour]);
+					}//end for
+					if (peak < h.reqCapacity.get(r) && peak < bestLoad){
+						best = r;
+						bestLoad = peak;
+					}//end if
+				}//end for
+			}//end if
+			plan.appointments[k] = h.apptId.get(i);
+			if (best < 0){
+				plan.staff[k] = -1;
+				++plan.unassigned;
+				continue;
+			}//end if
+			plan.staff[k] = h.reqStaff.get(best);
+			int base = (reqStaff[best] * days + day) * 24;
+			for (int hour = start / 60; hour <= (end - 1) / 60; ++hour){
+				++load[base + hour];
+			}//end for
+		}//end for
+		return plan;
+	}//end solve
+
+	private static int index(Map<Integer, Integer> indexes, int id){
+		Integer i = indexes.get(id);
+		if (i == null){
+			i = indexes.size();
+			indexes.put(id, i);
+		}//end if
+		return i;
+	}
+
+	/**
+	 * Method to insert the assignments of a plan into schedules as one
+	 * statement. Appointments staffed since the plan was loaded are
+	 * skipped.
+	 *
+	 * @return the number of rows inserted
+	 */
+	int save(ConnectionPool.PooledConnection pc, Plan plan) throws SQLException {
+		int n = plan.assigned();
+		if (n == 0) return 0;
+		int[] appointments = new int[n];
+		int[] staff = new int[n];
+		int j = 0;
+		for (int i = 0; i < plan.appointments.length; ++i){
+			if (plan.staff[i] < 0) continue;
+			appointments[j] = plan.appointments[i];
+			staff[j] = plan.staff[i];
+			++j;
+		}//end for
+		return DBproject.bind(pc, Query.ADD_SCHEDULES, appointments, staff).executeUpdate();
+	}
+}//end StaffScheduler
@@ -0,0 +1,91 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.postgresql.PGStatement;
+
+/**
+ * This class keeps the PreparedStatements of one connection open between
+ * calls, keyed by their SQL text. Once a statement has run prepareThreshold
+ * times the driver switches it to a server-side prepared plan, so reusing the
+ * same object is what lets Postgres skip parsing and planning. The least
+ * recently used statement is closed when the cache is full.
+ *
+ */
+
+public class StatementCache{
+	//number of statements kept open per connection
+	public static final int DEFAULT_CAPACITY = 64;
+
+	//reference to the physical connection the statements belong to
+	private final Connection _connection;
+	//open statements in least recently used order
+	private final LinkedHashMap<String, PreparedStatement> _statements;
+
+	public StatementCache(Connection connection, final int capacity){
+		this._connection = connection;
+		this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true){
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest){
+				if (size() <= capacity) return false;
+				closeQuietly(eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Method to get an open statement for a SQL string, preparing it on the
+	 * first call. The statement stays owned by the cache and must not be
+	 * closed by the caller.
+	 *
+	 * @param sql the SQL string with ? placeholders
+	 * @return the cached statement
+	 * @throws java.sql.SQLException when failed to prepare the statement
+	 */
+	public synchronized PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement stmt = this._statements.get(sql);
+		if (stmt == null || stmt.isClosed()){
+			stmt = this._connection.prepareStatement(sql);
+			this._statements.put(sql, stmt);
+		}//end if
+		return stmt;
+	}//end prepare
+
+	/**
+	 * Method to get an open statement for a named query. Hot queries are
+	 * server-prepared from their first execution.
+	 *
+	 * @param query the named query
+	 * @return the cached statement
+	 * @throws java.sql.SQLException when failed to prepare the statement
+	 */
+	public PreparedStatement prepare(Query query) throws SQLException {
+		PreparedStatement stmt = prepare(query.sql);
+		if (query.hot){
+			stmt.unwrap(PGStatement.class).setPrepareThreshold(1);
+		}//end if
+		return stmt;
+	}//end prepare
+
+	/**
+	 * Method to close every cached statement.
+	 */
+	public synchronized void close(){
+		Iterator<PreparedStatement> it = this._statements.values().iterator();
+		while (it.hasNext()){
+			closeQuietly(it.next());
+			it.remove();
+		}//end while
+	}//end close
+
+	private static void closeQuietly(PreparedStatement stmt){
+		try{
+			stmt.close();
+		}catch (SQLException e){
+			// ignored.
+		}//end try
+	}
+}//end StatementCache
@@ -0,0 +1,104 @@
+/**
+ * This class parses Appointment.time_slot values such as "8:00-10:00" or
+ * "14:00-16:30". A slot is handed around as one int packing its start and
+ * end in minutes since midnight, so parsing allocates nothing.
+ *
+ */
+
+public final class TimeSlot{
+	//returned for text that is not a valid slot
+	public static final int INVALID = -1;
+
+	private TimeSlot(){
+	}
+
+	/**
+	 * Method to parse a slot of the form H:MM-H:MM or HH:MM-HH:MM. Hours go
+	 * from 0 to 24, and the slot must end after it starts.
+	 *
+	 * @param s the slot text
+	 * @return the packed slot, or INVALID
+	 */
+	public static int parse(CharSequence s){
+		if (s == null) return INVALID;
+		int len = s.length();
+		int dash = -1;
+		for (int i = 0; i < len; ++i){
+			if (s.charAt(i) == '-'){
+				dash = i;
+				break;
+			}//end if
+		}//end for
+		if (dash < 0) return INVALID;
+		int start = parseTime(s, 0, dash);
+		int end = parseTime(s, dash + 1, len);
+		if (start < 0 || end < 0 || start >= end) return INVALID;
+		return (start << 16) | end;
+	}//end parse
+
+	/*
+	 * Minutes since midnight of H:MM or HH:MM in s[from, to), or -1.
+	 */
+	private static int parseTime(CharSequence s, int from, int to){
+		int colon = to - 3;
+		if (colon <= from || colon > from + 2 || s.charAt(colon) != ':') return -1;
+		int h = digits(s, from, colon);
+		int m = digits(s, colon + 1, to);
+		if (h < 0 || m < 0 || h > 24 || m > 59 || (h == 24 && m > 0)) return -1;
+		return h * 60 + m;
+	}
+
+	private static int digits(CharSequence s, int from, int to){
+		int v = 0;
+		for (int i = from; i < to; ++i){
+			char c = s.charAt(i);
+			if (c < '0' || c > '9') return -1;
+			v = v * 10 + (c - '0');
+		}//end for
+		return v;
+	}
+
+	/**
+	 * @return the start of a packed slot in minutes since midnight
+	 */
+	public static int start(int slot){
+		return slot >>> 16;
+	}
+
+	/**
+	 * @return the end of a packed slot in minutes since midnight
+	 */
+	public static int end(int slot){
+		return slot & 0xFFFF;
+	}
+
+	/**
+	 * @return true when two packed slots share any minute
+	 */
+	public static boolean overlaps(int a, int b){
+		return start(a) < end(b) && start(b) < end(a);
+	}
+
+	/**
+	 * Method to write a packed slot in the H:MM-H:MM form of the data files.
+	 *
+	 * @param slot the packed slot
+	 * @return the slot text
+	 */
+	public static String format(int slot){
+		StringBuilder sb = new StringBuilder(11);
+		appendTime(sb, start(slot));
+		sb.append('-');
+		appendTime(sb, end(slot));
+		return sb.toString();
+	}
+
+	/**
+	 * Method to write minutes since midnight as H:MM.
+	 */
+	static void appendTime(StringBuilder sb, int minutes){
+		sb.append(minutes / 60).append(':');
+		if (minutes % 60 < 10) sb.append('0');
+		sb.append(minutes % 60);
+	}
+}//end TimeSlot
@@ -0,0 +1,184 @@
+import java.sql.Date;
+import java.sql.SQLException;
+
+/**
+ * This program fills the database with a synthetic hospital network of any
+ * size: hospitals, departments, staff, doctors, patients and appointments
+ * plus the has_appointment, books, searches, schedules and
+ * request_maintenance rows that tie them together. Every foreign key points
+ * at a generated row and no doctor gets overlapping slots, so the constraints
+ * of create.sql and the migrations all hold. Rows are generated set based on
+ * the server and are the same on every run for the same sizes.
+ *
+ * It TRUNCATEs every table first, so run it against a scratch database:
+ *
+ *   java -cp lib/*:bin/ WorkloadGenerator <dbname> <port> <user> [name=value ...]
+ *
+ * where name is one of hospitals, departments (per hospital), staff,
+ * doctors, patients, appointments or days. The generated keys start from 0
+ * again, so it refuses to run while the archive of migration V007 holds
+ * appointments, unless clearArchive=1 deletes them too.
+ *
+ */
+
+public class WorkloadGenerator{
+	static final String[] DEPARTMENTS = {"Cardiology", "Dermatology", "Endocrinology", "Gastroenterology", "Geriatrics",
+		"Hematology", "Nephrology", "Neurology", "Nutrition", "Oncology", "Ophthalmology", "Orthopedics",
+		"Pediatric", "Psychiatry", "Pulmonology", "Radiology", "Rheumatology", "Surgery", "Urology", "Obstetrics/Gynecology"};
+	static final String[] SPECIALTIES = {"Allergist", "Cardiologist", "Dermatologist", "Endocrinologist", "Neurologist",
+		"Oncologist", "Pediatrician", "Psychiatrist", "Radiologist", "Surgeon"};
+	static final String[] TIME_SLOTS = {"8:00-10:00", "10:00-12:00", "13:00-15:00", "15:00-17:00"};
+	//status of appointment i is STATUS_CYCLE[(i * 7919) % 8]
+	static final String[] STATUS_CYCLE = {"PA", "PA", "AC", "AV", "AV", "WL", "AC", "PA"};
+	//first generated appointment date
+	static final Date FIRST_DAY = Date.valueOf("2020-01-01");
+
+	int hospitals = 10;
+	int departments = DEPARTMENTS.length;
+	int staff = 2000;
+	int doctors = 2000;
+	int patients = 100000;
+	int appointments = 1000000;
+	int days = 730;
+	boolean clearArchive = false;
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3){
+			System.err.println("Usage: java [-classpath <classpath>] WorkloadGenerator <dbname> <port> <user> [name=value ...]");
+			return;
+		}//end if
+		WorkloadGenerator gen = new WorkloadGenerator();
+		for (int i = 3; i < args.length; ++i){
+			gen.set(args[i]);
+		}//end for
+		DBproject esql = new DBproject(args[0], args[1], args[2], "");
+		try{
+			gen.generate(esql);
+		}finally{
+			esql.cleanup();
+		}
+	}
+
+	/**
+	 * Method to set a size from name=value.
+	 */
+	void set(String assignment){
+		int eq = assignment.indexOf('=');
+		if (eq < 0) throw new IllegalArgumentException("Expected name=value: " + assignment);
+		String name = assignment.substring(0, eq);
+		int value = Integer.parseInt(assignment.substring(eq + 1));
+		if (value <= 0) throw new IllegalArgumentException(name + " must be positive");
+		if (name.equals("hospitals")) this.hospitals = value;
+		else if (name.equals("departments")) this.departments = value;
+		else if (name.equals("staff")) this.staff = value;
+		else if (name.equals("doctors")) this.doctors = value;
+		else if (name.equals("patients")) this.patients = value;
+		else if (name.equals("appointments")) this.appointments = value;
+		else if (name.equals("days")) this.days = value;
+		else if (name.equals("clearArchive")) this.clearArchive = true;
+		else throw new IllegalArgumentException("Unknown size " + name);
+	}
+
+	/**
+	 * Method to replace the contents of the database with generated rows.
+	 *
+	 * @throws java.sql.SQLException when a statement failed, the database is
+	 * left as it was
+	 */
+	public void generate(DBproject esql) throws SQLException {
+		if (this.staff < this.hospitals) throw new IllegalArgumentException("need at least one staff member per hospital");
+		if (this.appointments > (long) TIME_SLOTS.length * this.doctors * this.days){
+			throw new IllegalArgumentException("more appointments than free slots, add doctors or days");
+		}//end if
+		final int depts = this.hospitals * this.departments;
+		final int perDay = TIME_SLOTS.length * this.doctors;
+		final int staffPerHospital = this.staff / this.hospitals;
+		final boolean archive = esql.getSchemaVersion() >= Archiver.ARCHIVE_VERSION;
+		if (archive && !this.clearArchive){
+			int archived = esql.executeQueryAndReturnColumns(Query.COUNT_ARCHIVED).getInt(0, 0);
+			if (archived > 0) throw new IllegalStateException("The archive holds " + archived + " appointments, add clearArchive=1 to delete them too");
+		}//end if
+		long start = System.nanoTime();
+		esql.inTransaction(new DBproject.Work<Void>(){
+			public Void run(ConnectionPool.PooledConnection pc) throws SQLException {
+				// the TRUNCATE notifies appointment_changed once instead of a notification per row
+				exec(pc, "SET LOCAL dbproject.feed = 'off'");
+				exec(pc, "TRUNCATE books, searches, schedules, has_appointment, request_maintenance, Appointment, Doctor, Staff, Department, Hospital, Patient CASCADE");
+				if (archive) exec(pc, "TRUNCATE " + Archiver.ARCHIVE_TABLES);
+				DBproject.bind(pc, Query.GEN_HOSPITALS, hospitals - 1).executeUpdate();
+				// department d belongs to hospital d / departments
+				DBproject.bind(pc, Query.GEN_DEPARTMENTS, DEPARTMENTS, departments, DEPARTMENTS.length, departments, DEPARTMENTS.length,
+					departments, departments, depts - 1).executeUpdate();
+				// staff member s works at hospital s % hospitals
+				DBproject.bind(pc, Query.GEN_STAFF, hospitals, staff - 1).executeUpdate();
+				// doctor i works in department i % depts
+				DBproject.bind(pc, Query.GEN_DOCTORS, SPECIALTIES, SPECIALTIES.length, depts, doctors - 1).executeUpdate();
+				DBproject.bind(pc, Query.GEN_PATIENTS, patients - 1).executeUpdate();
+				// appointment i is slot i % 4 of doctor (i / 4) % doctors, so no doctor gets overlapping slots
+				DBproject.bind(pc, Query.GEN_APPOINTMENTS, FIRST_DAY, perDay, days, TIME_SLOTS, TIME_SLOTS.length,
+					STATUS_CYCLE, STATUS_CYCLE.length, appointments - 1).executeUpdate();
+				DBproject.bind(pc, Query.GEN_HAS_APPOINTMENT, TIME_SLOTS.length, doctors, appointments - 1).executeUpdate();
+				// AC and WL appointments are held by patient(i); WL ones also have patient(i + 1) waiting
+				DBproject.bind(pc, Query.GEN_HOLDERS, patients).executeUpdate();
+				if (patients > 1){
+					DBproject.bind(pc, Query.GEN_WAITLISTED, patients).executeUpdate();
+				}//end if
+				exec(pc, "UPDATE Patient P SET number_of_appts = B.n FROM (SELECT patient_id, COUNT(*) AS n FROM books GROUP BY patient_id) B" +
+					" WHERE B.patient_id = P.patient_ID");
+				exec(pc, "INSERT INTO searches SELECT DISTINCT DP.hid, B.patient_id, B.appt_id FROM books B, has_appointment H, Doctor DC, Department DP" +
+					" WHERE B.appt_id = H.appt_id AND H.doctor_id = DC.doctor_ID AND DC.did = DP.dept_ID");
+				// a staff member of the doctor's hospital on each booked appointment
+				DBproject.bind(pc, Query.GEN_SCHEDULES, hospitals, staffPerHospital).executeUpdate();
+				DBproject.bind(pc, Query.GEN_MAINTENANCE, TIME_SLOTS, TIME_SLOTS.length, hospitals, staffPerHospital).executeUpdate();
+				DBproject.bind(pc, Query.GEN_SET_SEQUENCE, "doctor_id_seq", doctors).execute();
+				DBproject.bind(pc, Query.GEN_SET_SEQUENCE, "patient_id_seq", patients).execute();
+				DBproject.bind(pc, Query.GEN_SET_SEQUENCE, "appnt_id_seq", appointments).execute();
+				return null;
+			}
+		});
+		esql.executeUpdate("ANALYZE");
+		esql.getIdAllocator().reset();
+		esql.getReferenceCache().clear();
+		esql.getPatientResolver().clear();
+		System.out.printf("Generated %d hospitals, %d departments, %d staff, %d doctors, %d patients, %d appointments in %.1f s%n",
+			this.hospitals, depts, this.staff, this.doctors, this.patients, this.appointments, (System.nanoTime() - start) / 1e9);
+	}//end generate
+
+	//for the statements without values
+	private static void exec(ConnectionPool.PooledConnection pc, String sql) throws SQLException {
+		java.sql.Statement stmt = pc.connection.createStatement();
+		try{
+			stmt.execute(sql);
+		}finally{
+			stmt.close();
+		}
+	}
+
+	/*
+	 * Conventions of the generated rows, for benchmarks picking valid arguments.
+	 */
+
+	static String patientName(int p){
+		return "Patient " + p;
+	}
+
+	static String patientGender(int p){
+		return p % 2 == 0 ? "F" : "M";
+	}
+
+	static int patientAge(int p){
+		return 1 + (int) ((p * 37L) % 90);
+	}
+
+	static String patientAddress(int p){
+		return p + " Main Street";
+	}
+
+	static int doctorOf(int appnt_ID, int doctors){
+		return (appnt_ID / TIME_SLOTS.length) % doctors;
+	}
+
+	static Date day(int offset){
+		return Date.valueOf(FIRST_DAY.toLocalDate().plusDays(offset));
+	}
+}//end WorkloadGenerator
@@ -8,6 +8,43 @@ DROP TABLE IF EXISTS has_appointment CASCADE;--OK
 DROP TABLE IF EXISTS request_maintenance CASCADE;--OK
 DROP TABLE IF EXISTS searches CASCADE;--OK
 DROP TABLE IF EXISTS schedules CASCADE;--OK
+DROP TABLE IF EXISTS books CASCADE;--OK
+DROP TABLE IF EXISTS schema_version CASCADE;--OK
+DROP TABLE IF EXISTS doctor_status_count CASCADE;--OK
+DROP TABLE IF EXISTS available_slot CASCADE;--OK
+DROP TABLE IF EXISTS patient_near_duplicate CASCADE;--OK
+DROP TABLE IF EXISTS appointment_archive CASCADE;--OK
+DROP TABLE IF EXISTS has_appointment_archive CASCADE;--OK
+DROP TABLE IF EXISTS books_archive CASCADE;--OK
+DROP TABLE IF EXISTS schedules_archive CASCADE;--OK
+DROP TABLE IF EXISTS searches_archive CASCADE;--OK
+DROP SEQUENCE IF EXISTS doctor_id_seq;--OK
+DROP SEQUENCE IF EXISTS patient_id_seq;--OK
+DROP SEQUENCE IF EXISTS appnt_id_seq;--OK
+DROP FUNCTION IF EXISTS appointment_slot() CASCADE;--OK
+DROP FUNCTION IF EXISTS has_appointment_slot() CASCADE;--OK
+DROP FUNCTION IF EXISTS appointment_slot_moved() CASCADE;--OK
+DROP FUNCTION IF EXISTS doctor_status_move(INTEGER, VARCHAR, VARCHAR) CASCADE;--OK
+DROP FUNCTION IF EXISTS doctor_status_linked() CASCADE;--OK
+DROP FUNCTION IF EXISTS doctor_status_changed() CASCADE;--OK
+DROP FUNCTION IF EXISTS doctor_status_truncated() CASCADE;--OK
+DROP FUNCTION IF EXISTS reference_changed() CASCADE;--OK
+DROP FUNCTION IF EXISTS available_slot_refresh(INTEGER, INTEGER) CASCADE;--OK
+DROP FUNCTION IF EXISTS available_slot_appointment() CASCADE;--OK
+DROP FUNCTION IF EXISTS available_slot_linked() CASCADE;--OK
+DROP FUNCTION IF EXISTS available_slot_doctor_moved() CASCADE;--OK
+DROP FUNCTION IF EXISTS available_slot_truncated() CASCADE;--OK
+DROP FUNCTION IF EXISTS patient_key(TEXT, TEXT, INTEGER, TEXT) CASCADE;--OK
+DROP FUNCTION IF EXISTS patient_norm(TEXT) CASCADE;--OK
+DROP FUNCTION IF EXISTS archive_ensure_year(INTEGER) CASCADE;--OK
+DROP FUNCTION IF EXISTS expire_appointments(INTEGER) CASCADE;--OK
+DROP FUNCTION IF EXISTS archive_appointments(DATE, INTEGER) CASCADE;--OK
+DROP FUNCTION IF EXISTS appointment_archive_truncated() CASCADE;--OK
+DROP FUNCTION IF EXISTS appointment_changed() CASCADE;--OK
+DROP FUNCTION IF EXISTS appointment_linked() CASCADE;--OK
+DROP FUNCTION IF EXISTS appointment_truncated() CASCADE;--OK
+DROP FUNCTION IF EXISTS open_slots(INTEGER[], DATE, DATE, INTEGER, VARCHAR[], INTEGER) CASCADE;--OK
+DROP FUNCTION IF EXISTS appointment_slot_range(DATE, TIME, TIME) CASCADE;--OK
 
 
 -------------
@@ -124,6 +161,21 @@ CREATE TABLE has_appointment
 	FOREIGN KEY (doctor_id) REFERENCES Doctor(doctor_ID)
 );
 
+-- Who holds an appointment and who waits for it. At most one row per
+-- appointment has waitlisted = FALSE; waitlisted rows are promoted in
+-- booked_at order when the holder cancels.
+CREATE TABLE books
+(
+	appt_id INTEGER NOT NULL,
+	patient_id INTEGER NOT NULL,
+	waitlisted BOOLEAN NOT NULL,
+	booked_at TIMESTAMP NOT NULL DEFAULT clock_timestamp(),
+	PRIMARY KEY (appt_id,patient_id),
+	FOREIGN KEY (appt_id) REFERENCES Appointment(appnt_ID),
+	FOREIGN KEY (patient_id) REFERENCES Patient(patient_ID)
+);
+CREATE UNIQUE INDEX books_holder ON books (appt_id) WHERE NOT waitlisted;
+
 ----------------------------
 -- INSERT DATA STATEMENTS --
 ----------------------------
@@ -221,3 +273,17 @@ COPY has_appointment (
 FROM 'has_appointment.csv'
 WITH DELIMITER ',';
 
+
+---------------
+---SEQUENCES---
+---------------
+-- Key allocation for Doctor, Patient and Appointment. Every nextval reserves a
+-- block of INCREMENT BY ids for the caller (see IdAllocator.BLOCK_SIZE), so the
+-- java client only goes back to the DB once per block.
+CREATE SEQUENCE doctor_id_seq INCREMENT BY 50 MINVALUE 0;
+CREATE SEQUENCE patient_id_seq INCREMENT BY 50 MINVALUE 0;
+CREATE SEQUENCE appnt_id_seq INCREMENT BY 50 MINVALUE 0;
+
+SELECT setval('doctor_id_seq', (SELECT COALESCE(MAX(doctor_ID), -1) + 1 FROM Doctor), false);
+SELECT setval('patient_id_seq', (SELECT COALESCE(MAX(patient_ID), -1) + 1 FROM Patient), false);
+SELECT setval('appnt_id_seq', (SELECT COALESCE(MAX(appnt_ID), -1) + 1 FROM Appointment), false);
@@ -0,0 +1,18 @@
+-- Secondary indexes for the lookups of menu options 4-6. Applied by
+-- Migrator (DBproject ... --migrate) after create.sql.
+
+-- 5. appointments of a doctor: has_appointment's PK leads with appt_id
+CREATE INDEX has_appointment_doctor ON has_appointment (doctor_id, appt_id);
+
+-- 5./6. open appointments by date, covering the listed columns
+CREATE INDEX appointment_open_by_date ON Appointment (adate, appnt_ID, status, time_slot)
+	WHERE status IN ('AV', 'AC');
+
+-- 6. department by name, then its doctors
+CREATE INDEX department_name ON Department (name, dept_ID);
+CREATE INDEX doctor_department ON Doctor (did, doctor_ID);
+
+ANALYZE has_appointment;
+ANALYZE Appointment;
+ANALYZE Department;
+ANALYZE Doctor;
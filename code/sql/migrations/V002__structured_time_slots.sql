@@ -0,0 +1,61 @@
+-- Stores Appointment.time_slot ('8:00-10:00') as a start/end pair next to
+-- adate and lets the DB reject a doctor booked for overlapping slots.
+
+ALTER TABLE Appointment ADD COLUMN slot_start TIME, ADD COLUMN slot_end TIME;
+
+-- fills slot_start/slot_end from time_slot whenever only the text is given
+CREATE FUNCTION appointment_slot() RETURNS trigger AS $$
+BEGIN
+	IF NEW.time_slot IS NOT NULL AND (TG_OP = 'INSERT' OR NEW.time_slot IS DISTINCT FROM OLD.time_slot) THEN
+		NEW.slot_start := split_part(NEW.time_slot, '-', 1)::time;
+		NEW.slot_end := split_part(NEW.time_slot, '-', 2)::time;
+	END IF;
+	IF NEW.slot_start >= NEW.slot_end THEN
+		RAISE EXCEPTION 'time slot % of appointment % ends before it starts', NEW.time_slot, NEW.appnt_ID;
+	END IF;
+	RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER appointment_slot BEFORE INSERT OR UPDATE OF time_slot, slot_start, slot_end ON Appointment
+	FOR EACH ROW EXECUTE PROCEDURE appointment_slot();
+
+UPDATE Appointment SET slot_start = split_part(time_slot, '-', 1)::time, slot_end = split_part(time_slot, '-', 2)::time
+	WHERE time_slot IS NOT NULL;
+
+-- free slots of a day within a time window
+CREATE INDEX appointment_available_slot ON Appointment (adate, slot_start, slot_end) WHERE status = 'AV';
+
+-- has_appointment keeps a copy of its appointment's slot so that one
+-- exclusion constraint can compare the slots of a doctor
+CREATE EXTENSION IF NOT EXISTS btree_gist;
+
+ALTER TABLE has_appointment ADD COLUMN slot tsrange;
+
+CREATE FUNCTION has_appointment_slot() RETURNS trigger AS $$
+BEGIN
+	SELECT tsrange(A.adate + A.slot_start, A.adate + A.slot_end) INTO NEW.slot
+	FROM Appointment A WHERE A.appnt_ID = NEW.appt_id;
+	RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER has_appointment_slot BEFORE INSERT OR UPDATE OF appt_id ON has_appointment
+	FOR EACH ROW EXECUTE PROCEDURE has_appointment_slot();
+
+CREATE FUNCTION appointment_slot_moved() RETURNS trigger AS $$
+BEGIN
+	UPDATE has_appointment SET slot = tsrange(NEW.adate + NEW.slot_start, NEW.adate + NEW.slot_end)
+	WHERE appt_id = NEW.appnt_ID;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER appointment_slot_moved AFTER UPDATE OF adate, slot_start, slot_end ON Appointment
+	FOR EACH ROW EXECUTE PROCEDURE appointment_slot_moved();
+
+UPDATE has_appointment H SET slot = tsrange(A.adate + A.slot_start, A.adate + A.slot_end)
+	FROM Appointment A WHERE A.appnt_ID = H.appt_id;
+
+ALTER TABLE has_appointment ADD CONSTRAINT has_appointment_no_overlap
+	EXCLUDE USING gist (doctor_id WITH =, slot WITH &&);
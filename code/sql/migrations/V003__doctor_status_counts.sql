@@ -0,0 +1,82 @@
+-- Appointments per doctor and status, kept up to date by triggers on every
+-- path that books, cancels or links an appointment, so the reports of menu
+-- options 7 and 8 can read O(doctors) rows instead of grouping all of
+-- has_appointment x Appointment. Used when DBproject runs with
+-- -Ddbproject.reports.summary=true.
+
+CREATE TABLE doctor_status_count
+(
+	doctor_id INTEGER NOT NULL,
+	status VARCHAR(2) NOT NULL,
+	count INTEGER NOT NULL,
+	PRIMARY KEY (doctor_id, status)
+);
+
+-- moves one appointment of doctor d from status old_status to new_status,
+-- either may be NULL; rows are touched in status order so that concurrent
+-- bookings and cancellations of one doctor never deadlock
+CREATE FUNCTION doctor_status_move(d INTEGER, old_status VARCHAR, new_status VARCHAR) RETURNS void AS $$
+BEGIN
+	IF old_status IS NOT DISTINCT FROM new_status THEN
+		RETURN;
+	END IF;
+	IF old_status IS NOT NULL AND (new_status IS NULL OR old_status < new_status) THEN
+		UPDATE doctor_status_count SET count = count - 1 WHERE doctor_id = d AND status = old_status;
+		old_status := NULL;
+	END IF;
+	IF new_status IS NOT NULL THEN
+		INSERT INTO doctor_status_count AS C VALUES (d, new_status, 1)
+		ON CONFLICT (doctor_id, status) DO UPDATE SET count = C.count + 1;
+	END IF;
+	IF old_status IS NOT NULL THEN
+		UPDATE doctor_status_count SET count = count - 1 WHERE doctor_id = d AND status = old_status;
+	END IF;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE FUNCTION doctor_status_linked() RETURNS trigger AS $$
+BEGIN
+	IF TG_OP <> 'INSERT' THEN
+		PERFORM doctor_status_move(OLD.doctor_id, A.status, NULL) FROM Appointment A WHERE A.appnt_ID = OLD.appt_id;
+	END IF;
+	IF TG_OP <> 'DELETE' THEN
+		PERFORM doctor_status_move(NEW.doctor_id, NULL, A.status) FROM Appointment A WHERE A.appnt_ID = NEW.appt_id;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER doctor_status_linked AFTER INSERT OR DELETE OR UPDATE OF appt_id, doctor_id ON has_appointment
+	FOR EACH ROW EXECUTE PROCEDURE doctor_status_linked();
+
+CREATE FUNCTION doctor_status_changed() RETURNS trigger AS $$
+BEGIN
+	PERFORM doctor_status_move(H.doctor_id, OLD.status, NEW.status) FROM has_appointment H WHERE H.appt_id = NEW.appnt_ID;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER doctor_status_changed AFTER UPDATE OF status ON Appointment
+	FOR EACH ROW WHEN (OLD.status IS DISTINCT FROM NEW.status) EXECUTE PROCEDURE doctor_status_changed();
+
+-- every count is of linked appointments, so once has_appointment is emptied
+-- none is left; doctor_status_linked never sees the rows TRUNCATE removes
+CREATE FUNCTION doctor_status_truncated() RETURNS trigger AS $$
+BEGIN
+	DELETE FROM doctor_status_count;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER doctor_status_truncated AFTER TRUNCATE ON has_appointment
+	FOR EACH STATEMENT EXECUTE PROCEDURE doctor_status_truncated();
+
+INSERT INTO doctor_status_count
+	SELECT H.doctor_id, A.status, COUNT(*) FROM has_appointment H, Appointment A
+	WHERE H.appt_id = A.appnt_ID AND A.status IS NOT NULL
+	GROUP BY H.doctor_id, A.status;
+
+-- 8. doctors by count of one status
+CREATE INDEX doctor_status_count_by_status ON doctor_status_count (status, count DESC, doctor_id);
+
+ANALYZE doctor_status_count;
@@ -0,0 +1,39 @@
+-- Notifies channel reference_changed of every write to Doctor, Department
+-- and Hospital, so the ReferenceCache of every running client drops the
+-- row. The payload is table:id, or the table alone after a TRUNCATE.
+-- Notifications go out when the writing transaction commits and identical
+-- ones of a transaction are sent once.
+
+-- TG_ARGV[0] names the key column
+CREATE FUNCTION reference_changed() RETURNS trigger AS $$
+DECLARE
+	tbl TEXT := lower(TG_TABLE_NAME);
+BEGIN
+	IF TG_OP = 'TRUNCATE' THEN
+		PERFORM pg_notify('reference_changed', tbl);
+		RETURN NULL;
+	END IF;
+	IF TG_OP <> 'INSERT' THEN
+		PERFORM pg_notify('reference_changed', tbl || ':' || (to_jsonb(OLD) ->> TG_ARGV[0]));
+	END IF;
+	IF TG_OP <> 'DELETE' THEN
+		PERFORM pg_notify('reference_changed', tbl || ':' || (to_jsonb(NEW) ->> TG_ARGV[0]));
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER doctor_changed AFTER INSERT OR UPDATE OR DELETE ON Doctor
+	FOR EACH ROW EXECUTE PROCEDURE reference_changed('doctor_id');
+CREATE TRIGGER doctor_truncated AFTER TRUNCATE ON Doctor
+	FOR EACH STATEMENT EXECUTE PROCEDURE reference_changed();
+
+CREATE TRIGGER department_changed AFTER INSERT OR UPDATE OR DELETE ON Department
+	FOR EACH ROW EXECUTE PROCEDURE reference_changed('dept_id');
+CREATE TRIGGER department_truncated AFTER TRUNCATE ON Department
+	FOR EACH STATEMENT EXECUTE PROCEDURE reference_changed();
+
+CREATE TRIGGER hospital_changed AFTER INSERT OR UPDATE OR DELETE ON Hospital
+	FOR EACH ROW EXECUTE PROCEDURE reference_changed('hospital_id');
+CREATE TRIGGER hospital_truncated AFTER TRUNCATE ON Hospital
+	FOR EACH STATEMENT EXECUTE PROCEDURE reference_changed();
@@ -0,0 +1,92 @@
+-- The available appointments of every department and date, kept up to date
+-- by triggers whenever an appointment is booked, cancelled, moved or linked
+-- to a doctor, so that option 6 and FREE_SLOTS read one index range instead
+-- of joining Doctor, has_appointment and Appointment on every lookup.
+-- DBproject switches to it once this migration is applied.
+
+CREATE TABLE available_slot
+(
+	appnt_id INTEGER NOT NULL,
+	doctor_id INTEGER NOT NULL,
+	dept_id INTEGER NOT NULL,
+	adate DATE NOT NULL,
+	time_slot VARCHAR(11),
+	slot_start TIME,
+	slot_end TIME,
+	PRIMARY KEY (appnt_id, doctor_id)
+);
+
+-- 6. covers the listed columns, so a lookup is an index-only range scan
+CREATE INDEX available_slot_by_department ON available_slot (dept_id, adate, slot_start, slot_end, appnt_id, time_slot);
+
+-- re-derives the rows of one appointment, of one of its doctors when d is
+-- not NULL, from has_appointment, Doctor and Appointment
+CREATE FUNCTION available_slot_refresh(a INTEGER, d INTEGER) RETURNS void AS $$
+BEGIN
+	DELETE FROM available_slot S WHERE S.appnt_id = a AND (d IS NULL OR S.doctor_id = d);
+	INSERT INTO available_slot
+		SELECT A.appnt_ID, H.doctor_id, DC.did, A.adate, A.time_slot, A.slot_start, A.slot_end
+		FROM Appointment A, has_appointment H, Doctor DC
+		WHERE A.appnt_ID = a AND A.status = 'AV' AND H.appt_id = A.appnt_ID AND (d IS NULL OR H.doctor_id = d)
+			AND H.doctor_id = DC.doctor_ID;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE FUNCTION available_slot_appointment() RETURNS trigger AS $$
+BEGIN
+	IF TG_OP = 'DELETE' THEN
+		DELETE FROM available_slot S WHERE S.appnt_id = OLD.appnt_ID;
+	ELSE
+		PERFORM available_slot_refresh(NEW.appnt_ID, NULL);
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- a new appointment has no doctor yet, so only changes matter
+CREATE TRIGGER available_slot_appointment AFTER UPDATE OF status, adate, time_slot, slot_start, slot_end OR DELETE ON Appointment
+	FOR EACH ROW EXECUTE PROCEDURE available_slot_appointment();
+
+CREATE FUNCTION available_slot_linked() RETURNS trigger AS $$
+BEGIN
+	IF TG_OP <> 'INSERT' THEN
+		DELETE FROM available_slot S WHERE S.appnt_id = OLD.appt_id AND S.doctor_id = OLD.doctor_id;
+	END IF;
+	IF TG_OP <> 'DELETE' THEN
+		PERFORM available_slot_refresh(NEW.appt_id, NEW.doctor_id);
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER available_slot_linked AFTER INSERT OR DELETE OR UPDATE OF appt_id, doctor_id ON has_appointment
+	FOR EACH ROW EXECUTE PROCEDURE available_slot_linked();
+
+CREATE FUNCTION available_slot_doctor_moved() RETURNS trigger AS $$
+BEGIN
+	UPDATE available_slot SET dept_id = NEW.did WHERE doctor_id = NEW.doctor_ID;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER available_slot_doctor_moved AFTER UPDATE OF did ON Doctor
+	FOR EACH ROW WHEN (OLD.did IS DISTINCT FROM NEW.did) EXECUTE PROCEDURE available_slot_doctor_moved();
+
+-- a slot is only offered while linked to a doctor, which no appointment is
+-- after has_appointment is emptied; TRUNCATE bypasses available_slot_linked
+CREATE FUNCTION available_slot_truncated() RETURNS trigger AS $$
+BEGIN
+	DELETE FROM available_slot;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER available_slot_truncated AFTER TRUNCATE ON has_appointment
+	FOR EACH STATEMENT EXECUTE PROCEDURE available_slot_truncated();
+
+INSERT INTO available_slot
+	SELECT A.appnt_ID, H.doctor_id, DC.did, A.adate, A.time_slot, A.slot_start, A.slot_end
+	FROM Appointment A, has_appointment H, Doctor DC
+	WHERE A.status = 'AV' AND H.appt_id = A.appnt_ID AND H.doctor_id = DC.doctor_ID;
+
+ANALYZE available_slot;
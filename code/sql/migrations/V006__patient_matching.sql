@@ -0,0 +1,35 @@
+-- Finds the existing patient of a booking by an index probe instead of a
+-- scan of Patient. Patients match on name, gender, age and address after
+-- normalizing case and whitespace, so "John  Smith" books as "john smith".
+-- New patients whose name is similar to an existing one of the same gender
+-- and age are recorded in patient_near_duplicate for review.
+
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+-- lower case, trimmed, inner whitespace collapsed to one space
+CREATE FUNCTION patient_norm(s TEXT) RETURNS TEXT AS $$
+	SELECT lower(regexp_replace(btrim(s), '\s+', ' ', 'g'))
+$$ LANGUAGE sql IMMUTABLE;
+
+-- fixed-size hash of the normalized identity, keeps the index small
+CREATE FUNCTION patient_key(name TEXT, gtype TEXT, age INTEGER, address TEXT) RETURNS TEXT AS $$
+	SELECT md5(patient_norm(name) || '|' || gtype || '|' || age || '|' || coalesce(patient_norm(address), ''))
+$$ LANGUAGE sql IMMUTABLE;
+
+CREATE INDEX patient_match ON Patient (patient_key(name, gtype, age, address));
+
+-- similar names, for flagging near-duplicates
+CREATE INDEX patient_name_trgm ON Patient USING gin (patient_norm(name) gin_trgm_ops);
+
+CREATE TABLE patient_near_duplicate
+(
+	patient_id INTEGER NOT NULL,
+	similar_id INTEGER NOT NULL,
+	similarity REAL NOT NULL,
+	found_at TIMESTAMP NOT NULL DEFAULT now(),
+	PRIMARY KEY (patient_id, similar_id),
+	FOREIGN KEY (patient_id) REFERENCES Patient(patient_ID),
+	FOREIGN KEY (similar_id) REFERENCES Patient(patient_ID)
+);
+
+ANALYZE Patient;
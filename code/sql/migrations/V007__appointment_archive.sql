@@ -0,0 +1,147 @@
+-- Hot and cold appointment storage. Appointment keeps the live AV/AC/WL rows
+-- and the recent past, while appointments that ended long enough ago move,
+-- with their has_appointment, books, schedules and searches rows, to archive
+-- tables range-partitioned by adate, one partition per year. The hot tables
+-- and their indexes then stay the size of the booking window however many
+-- years of history pile up. Appointment itself is not partitioned because
+-- has_appointment, books, schedules and searches reference its key and the
+-- V002 exclusion constraint spans the doctor's whole has_appointment.
+--
+-- Archiver (DBproject ... --archive, and every hour in --serve mode) calls
+-- expire_appointments to flip elapsed appointments to PA and
+-- archive_appointments to move the old PA ones, a batch per transaction.
+
+CREATE TABLE appointment_archive
+(
+	appnt_ID INTEGER NOT NULL,
+	adate DATE NOT NULL,
+	time_slot VARCHAR(11),
+	status VARCHAR(2),
+	slot_start TIME,
+	slot_end TIME,
+	archived_at TIMESTAMP NOT NULL DEFAULT now()
+) PARTITION BY RANGE (adate);
+
+CREATE TABLE has_appointment_archive
+(
+	appt_id INTEGER NOT NULL,
+	doctor_id INTEGER NOT NULL,
+	adate DATE NOT NULL
+) PARTITION BY RANGE (adate);
+
+CREATE TABLE books_archive
+(
+	appt_id INTEGER NOT NULL,
+	patient_id INTEGER NOT NULL,
+	waitlisted BOOLEAN NOT NULL,
+	booked_at TIMESTAMP NOT NULL,
+	adate DATE NOT NULL
+) PARTITION BY RANGE (adate);
+
+CREATE TABLE schedules_archive
+(
+	appt_id INTEGER NOT NULL,
+	staff_id INTEGER NOT NULL,
+	adate DATE NOT NULL
+) PARTITION BY RANGE (adate);
+
+CREATE TABLE searches_archive
+(
+	hid INTEGER NOT NULL,
+	pid INTEGER NOT NULL,
+	aid INTEGER NOT NULL,
+	adate DATE NOT NULL
+) PARTITION BY RANGE (adate);
+
+-- the batches below find their rows through these instead of scanning the
+-- hot table; both only hold rows still waiting to be expired or archived
+CREATE INDEX appointment_live_by_date ON Appointment (adate) WHERE status <> 'PA';
+CREATE INDEX appointment_past_by_date ON Appointment (adate) WHERE status = 'PA';
+-- searches' PK leads with hid
+CREATE INDEX searches_appointment ON searches (aid);
+
+-- adds the partitions of year y to every archive table
+CREATE FUNCTION archive_ensure_year(y INTEGER) RETURNS void AS $$
+DECLARE
+	t TEXT;
+BEGIN
+	FOREACH t IN ARRAY ARRAY['appointment_archive', 'has_appointment_archive', 'books_archive', 'schedules_archive', 'searches_archive'] LOOP
+		EXECUTE format('CREATE TABLE IF NOT EXISTS %I PARTITION OF %I FOR VALUES FROM (%L) TO (%L)',
+			t || '_' || y, t, make_date(y, 1, 1), make_date(y + 1, 1, 1));
+	END LOOP;
+END;
+$$ LANGUAGE plpgsql;
+
+-- flips up to batch appointments dated before today to PA, returns how many
+CREATE FUNCTION expire_appointments(batch INTEGER) RETURNS INTEGER AS $$
+DECLARE
+	n INTEGER;
+BEGIN
+	UPDATE Appointment SET status = 'PA' WHERE appnt_ID IN (
+		SELECT A.appnt_ID FROM Appointment A WHERE A.status <> 'PA' AND A.adate < CURRENT_DATE
+		ORDER BY A.adate LIMIT batch FOR UPDATE SKIP LOCKED);
+	GET DIAGNOSTICS n = ROW_COUNT;
+	RETURN n;
+END;
+$$ LANGUAGE plpgsql;
+
+-- moves up to batch PA appointments dated before cutoff, and every row
+-- referencing them, to the archive tables; returns how many
+CREATE FUNCTION archive_appointments(cutoff DATE, batch INTEGER) RETURNS INTEGER AS $$
+DECLARE
+	ids INTEGER[];
+	y INTEGER;
+BEGIN
+	SELECT array_agg(X.appnt_ID) INTO ids FROM (
+		SELECT A.appnt_ID FROM Appointment A WHERE A.status = 'PA' AND A.adate < cutoff
+		ORDER BY A.adate LIMIT batch FOR UPDATE SKIP LOCKED) X;
+	IF ids IS NULL THEN
+		RETURN 0;
+	END IF;
+	FOR y IN SELECT DISTINCT date_part('year', A.adate)::INTEGER FROM Appointment A WHERE A.appnt_ID = ANY (ids) LOOP
+		PERFORM archive_ensure_year(y);
+	END LOOP;
+
+	INSERT INTO has_appointment_archive
+		SELECT H.appt_id, H.doctor_id, A.adate FROM has_appointment H, Appointment A
+		WHERE A.appnt_ID = ANY (ids) AND H.appt_id = A.appnt_ID;
+	INSERT INTO books_archive
+		SELECT B.appt_id, B.patient_id, B.waitlisted, B.booked_at, A.adate FROM books B, Appointment A
+		WHERE A.appnt_ID = ANY (ids) AND B.appt_id = A.appnt_ID;
+	INSERT INTO schedules_archive
+		SELECT S.appt_id, S.staff_id, A.adate FROM schedules S, Appointment A
+		WHERE A.appnt_ID = ANY (ids) AND S.appt_id = A.appnt_ID;
+	INSERT INTO searches_archive
+		SELECT S.hid, S.pid, S.aid, A.adate FROM searches S, Appointment A
+		WHERE A.appnt_ID = ANY (ids) AND S.aid = A.appnt_ID;
+	INSERT INTO appointment_archive (appnt_ID, adate, time_slot, status, slot_start, slot_end)
+		SELECT A.appnt_ID, A.adate, A.time_slot, A.status, A.slot_start, A.slot_end FROM Appointment A
+		WHERE A.appnt_ID = ANY (ids);
+
+	-- archived appointments still count as PA in doctor_status_count
+	PERFORM set_config('dbproject.archiving', 'on', true);
+	DELETE FROM searches WHERE aid = ANY (ids);
+	DELETE FROM schedules WHERE appt_id = ANY (ids);
+	DELETE FROM books WHERE appt_id = ANY (ids);
+	DELETE FROM has_appointment WHERE appt_id = ANY (ids);
+	DELETE FROM Appointment WHERE appnt_ID = ANY (ids);
+	PERFORM set_config('dbproject.archiving', 'off', true);
+	RETURN array_length(ids, 1);
+END;
+$$ LANGUAGE plpgsql;
+
+-- as in V003, but leaves the counts alone while rows move to the archive
+CREATE OR REPLACE FUNCTION doctor_status_linked() RETURNS trigger AS $$
+BEGIN
+	IF current_setting('dbproject.archiving', true) = 'on' THEN
+		RETURN NULL;
+	END IF;
+	IF TG_OP <> 'INSERT' THEN
+		PERFORM doctor_status_move(OLD.doctor_id, A.status, NULL) FROM Appointment A WHERE A.appnt_ID = OLD.appt_id;
+	END IF;
+	IF TG_OP <> 'DELETE' THEN
+		PERFORM doctor_status_move(NEW.doctor_id, NULL, A.status) FROM Appointment A WHERE A.appnt_ID = NEW.appt_id;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
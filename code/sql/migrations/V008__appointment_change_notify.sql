@@ -0,0 +1,58 @@
+-- Notifies channel appointment_changed of every change that decides whether
+-- an appointment shows as available, so clients follow them through
+-- ChangeFeed instead of re-running their listings. Payloads are
+--   s:id:date:old:new   an appointment added, removed, moved or changing
+--                       status; old or new is empty for none
+--   l:id:doctor:1|0     a doctor linked to or unlinked from an appointment
+--   *                   after a TRUNCATE, everything changed
+-- Notifications go out when the writing transaction commits. Bulk reloads
+-- set dbproject.feed to off for their transaction and rely on the TRUNCATE
+-- one.
+
+CREATE FUNCTION appointment_changed() RETURNS trigger AS $$
+BEGIN
+	IF current_setting('dbproject.feed', true) = 'off' THEN
+		RETURN NULL;
+	END IF;
+	IF TG_OP = 'INSERT' THEN
+		PERFORM pg_notify('appointment_changed', 's:' || NEW.appnt_ID || ':' || NEW.adate || '::' || COALESCE(NEW.status, ''));
+	ELSIF TG_OP = 'DELETE' THEN
+		PERFORM pg_notify('appointment_changed', 's:' || OLD.appnt_ID || ':' || OLD.adate || ':' || COALESCE(OLD.status, '') || ':');
+	ELSE
+		PERFORM pg_notify('appointment_changed', 's:' || NEW.appnt_ID || ':' || NEW.adate || ':' ||
+			COALESCE(OLD.status, '') || ':' || COALESCE(NEW.status, ''));
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER appointment_changed AFTER INSERT OR DELETE OR UPDATE OF adate, time_slot, status ON Appointment
+	FOR EACH ROW EXECUTE PROCEDURE appointment_changed();
+
+CREATE FUNCTION appointment_linked() RETURNS trigger AS $$
+BEGIN
+	IF current_setting('dbproject.feed', true) = 'off' THEN
+		RETURN NULL;
+	END IF;
+	IF TG_OP <> 'INSERT' THEN
+		PERFORM pg_notify('appointment_changed', 'l:' || OLD.appt_id || ':' || OLD.doctor_id || ':0');
+	END IF;
+	IF TG_OP <> 'DELETE' THEN
+		PERFORM pg_notify('appointment_changed', 'l:' || NEW.appt_id || ':' || NEW.doctor_id || ':1');
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER appointment_linked AFTER INSERT OR DELETE OR UPDATE OF appt_id, doctor_id ON has_appointment
+	FOR EACH ROW EXECUTE PROCEDURE appointment_linked();
+
+CREATE FUNCTION appointment_truncated() RETURNS trigger AS $$
+BEGIN
+	PERFORM pg_notify('appointment_changed', '*');
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER appointment_truncated AFTER TRUNCATE ON Appointment
+	FOR EACH STATEMENT EXECUTE PROCEDURE appointment_truncated();
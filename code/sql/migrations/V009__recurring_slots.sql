@@ -0,0 +1,50 @@
+-- Opens the slots of a recurring template in one call: every listed time
+-- slot, on every day of [first_day, last_day] whose weekday is in the
+-- weekdays mask (bit 0 Monday ... bit 6 Sunday), for every listed doctor,
+-- becomes an AV Appointment linked to the doctor. Slots the doctor already
+-- has open that day are skipped. Keys are taken from appnt_id_seq a block
+-- at a time like IdAllocator does, so block must be its INCREMENT BY.
+-- Used by SlotTemplate.
+
+CREATE FUNCTION open_slots(doctors INTEGER[], first_day DATE, last_day DATE, weekdays INTEGER, slots VARCHAR[], block INTEGER) RETURNS INTEGER AS $$
+DECLARE
+	dids INTEGER[];
+	days DATE[];
+	times VARCHAR[];
+	starts INTEGER[];
+	ids INTEGER[];
+	n INTEGER;
+	feed TEXT := current_setting('dbproject.feed', true);
+BEGIN
+	SELECT array_agg(P.doctor_id ORDER BY P.day, P.doctor_id, P.ord), array_agg(P.day ORDER BY P.day, P.doctor_id, P.ord),
+		array_agg(P.slot ORDER BY P.day, P.doctor_id, P.ord)
+	INTO dids, days, times
+	FROM (SELECT DC.doctor_ID AS doctor_id, G.day::DATE AS day, T.slot, T.ord
+		FROM Doctor DC, generate_series(first_day, last_day, INTERVAL '1 day') AS G(day),
+			unnest(slots) WITH ORDINALITY AS T(slot, ord)
+		WHERE DC.doctor_ID = ANY (doctors) AND weekdays & (1 << (extract(isodow FROM G.day)::INTEGER - 1)) <> 0
+			AND NOT EXISTS (SELECT 1 FROM has_appointment H, Appointment A
+				WHERE H.doctor_id = DC.doctor_ID AND H.appt_id = A.appnt_ID AND A.adate = G.day::DATE AND A.time_slot = T.slot)) P;
+	n := COALESCE(array_length(dids, 1), 0);
+	IF n = 0 THEN
+		RETURN 0;
+	END IF;
+
+	SELECT array_agg(nextval('appnt_id_seq')::INTEGER) INTO starts FROM generate_series(1, (n + block - 1) / block);
+	SELECT array_agg(starts[(i - 1) / block + 1] + (i - 1) % block ORDER BY i) INTO ids FROM generate_series(1, n) AS i;
+
+	-- one appointment_changed reset instead of a notification per row (V008)
+	IF n > 1000 THEN
+		PERFORM set_config('dbproject.feed', 'off', true);
+	END IF;
+	INSERT INTO Appointment (appnt_ID, adate, time_slot, status)
+		SELECT U.id, U.day, U.slot, 'AV' FROM unnest(ids, days, times) AS U(id, day, slot);
+	INSERT INTO has_appointment (appt_id, doctor_id)
+		SELECT U.id, U.doctor_id FROM unnest(ids, dids) AS U(id, doctor_id);
+	IF n > 1000 THEN
+		PERFORM set_config('dbproject.feed', COALESCE(feed, ''), true);
+		PERFORM pg_notify('appointment_changed', '*');
+	END IF;
+	RETURN n;
+END;
+$$ LANGUAGE plpgsql;
@@ -0,0 +1,47 @@
+-- has_appointment.slot of V002 was tsrange(adate + slot_start, adate +
+-- slot_end), which for a NULL bound is a range unbounded on that side and so
+-- overlapped every other slot of the doctor in has_appointment_no_overlap.
+-- A slot missing a bound is now stored as NULL, which the exclusion
+-- constraint ignores, and clearing time_slot clears its bounds too.
+
+-- NULL unless the date and both bounds are known
+CREATE FUNCTION appointment_slot_range(adate DATE, slot_start TIME, slot_end TIME) RETURNS tsrange AS $$
+	SELECT CASE WHEN adate IS NULL OR slot_start IS NULL OR slot_end IS NULL THEN NULL
+		ELSE tsrange(adate + slot_start, adate + slot_end) END
+$$ LANGUAGE sql IMMUTABLE;
+
+CREATE OR REPLACE FUNCTION appointment_slot() RETURNS trigger AS $$
+BEGIN
+	IF TG_OP = 'INSERT' OR NEW.time_slot IS DISTINCT FROM OLD.time_slot THEN
+		IF NEW.time_slot IS NULL THEN
+			NEW.slot_start := NULL;
+			NEW.slot_end := NULL;
+		ELSE
+			NEW.slot_start := split_part(NEW.time_slot, '-', 1)::time;
+			NEW.slot_end := split_part(NEW.time_slot, '-', 2)::time;
+		END IF;
+	END IF;
+	IF NEW.slot_start >= NEW.slot_end THEN
+		RAISE EXCEPTION 'time slot % of appointment % ends before it starts', NEW.time_slot, NEW.appnt_ID;
+	END IF;
+	RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION has_appointment_slot() RETURNS trigger AS $$
+BEGIN
+	SELECT appointment_slot_range(A.adate, A.slot_start, A.slot_end) INTO NEW.slot
+	FROM Appointment A WHERE A.appnt_ID = NEW.appt_id;
+	RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION appointment_slot_moved() RETURNS trigger AS $$
+BEGIN
+	UPDATE has_appointment SET slot = appointment_slot_range(NEW.adate, NEW.slot_start, NEW.slot_end)
+	WHERE appt_id = NEW.appnt_ID;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+UPDATE has_appointment SET slot = NULL WHERE lower_inf(slot) OR upper_inf(slot);
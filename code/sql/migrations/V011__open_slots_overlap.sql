@@ -0,0 +1,49 @@
+-- open_slots of V009 skipped a slot only when the doctor had one with the
+-- same time_slot text that day. A slot overlapping an existing one with
+-- other bounds, 8:30-9:30 against 8:00-10:00, went on to the INSERT and
+-- has_appointment_no_overlap (V002) aborted the whole call. Slots are now
+-- skipped when they overlap any slot the doctor has, through the same
+-- gist index the constraint uses.
+
+CREATE OR REPLACE FUNCTION open_slots(doctors INTEGER[], first_day DATE, last_day DATE, weekdays INTEGER, slots VARCHAR[], block INTEGER) RETURNS INTEGER AS $$
+DECLARE
+	dids INTEGER[];
+	days DATE[];
+	times VARCHAR[];
+	starts INTEGER[];
+	ids INTEGER[];
+	n INTEGER;
+	feed TEXT := current_setting('dbproject.feed', true);
+BEGIN
+	SELECT array_agg(P.doctor_id ORDER BY P.day, P.doctor_id, P.ord), array_agg(P.day ORDER BY P.day, P.doctor_id, P.ord),
+		array_agg(P.slot ORDER BY P.day, P.doctor_id, P.ord)
+	INTO dids, days, times
+	FROM (SELECT DC.doctor_ID AS doctor_id, G.day::DATE AS day, T.slot, T.ord
+		FROM Doctor DC, generate_series(first_day, last_day, INTERVAL '1 day') AS G(day),
+			unnest(slots) WITH ORDINALITY AS T(slot, ord)
+		WHERE DC.doctor_ID = ANY (doctors) AND weekdays & (1 << (extract(isodow FROM G.day)::INTEGER - 1)) <> 0
+			AND NOT EXISTS (SELECT 1 FROM has_appointment H WHERE H.doctor_id = DC.doctor_ID
+				AND H.slot && appointment_slot_range(G.day::DATE, split_part(T.slot, '-', 1)::time, split_part(T.slot, '-', 2)::time))) P;
+	n := COALESCE(array_length(dids, 1), 0);
+	IF n = 0 THEN
+		RETURN 0;
+	END IF;
+
+	SELECT array_agg(nextval('appnt_id_seq')::INTEGER) INTO starts FROM generate_series(1, (n + block - 1) / block);
+	SELECT array_agg(starts[(i - 1) / block + 1] + (i - 1) % block ORDER BY i) INTO ids FROM generate_series(1, n) AS i;
+
+	-- one appointment_changed reset instead of a notification per row (V008)
+	IF n > 1000 THEN
+		PERFORM set_config('dbproject.feed', 'off', true);
+	END IF;
+	INSERT INTO Appointment (appnt_ID, adate, time_slot, status)
+		SELECT U.id, U.day, U.slot, 'AV' FROM unnest(ids, days, times) AS U(id, day, slot);
+	INSERT INTO has_appointment (appt_id, doctor_id)
+		SELECT U.id, U.doctor_id FROM unnest(ids, dids) AS U(id, doctor_id);
+	IF n > 1000 THEN
+		PERFORM set_config('dbproject.feed', COALESCE(feed, ''), true);
+		PERFORM pg_notify('appointment_changed', '*');
+	END IF;
+	RETURN n;
+END;
+$$ LANGUAGE plpgsql;
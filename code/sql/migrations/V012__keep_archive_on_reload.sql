@@ -0,0 +1,8 @@
+-- The archive is the only copy of the appointments moved out of Appointment,
+-- and the CSV snapshots do not hold it, so a reload no longer empties it
+-- along with Appointment. Databases that applied V007 while it still
+-- created appointment_archive_truncated lose that trigger here; clearing
+-- the archive is now an explicit option of the loaders.
+
+DROP TRIGGER IF EXISTS appointment_archive_truncated ON Appointment;
+DROP FUNCTION IF EXISTS appointment_archive_truncated();
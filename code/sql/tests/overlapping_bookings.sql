@@ -0,0 +1,28 @@
+-- Books two overlapping slots for one doctor the way BookingEngine links
+-- them (Query.ADD_HAS_APPOINTMENT) and expects the second link to fail on
+-- has_appointment_no_overlap. Runs in a rolled back transaction against a
+-- database with every migration applied:
+--   psql -v ON_ERROR_STOP=1 -d $DBNAME -f code/sql/tests/overlapping_bookings.sql
+
+BEGIN;
+
+INSERT INTO Hospital VALUES (2000000001, 'Test Hospital');
+INSERT INTO Department VALUES (2000000001, 'Test', 2000000001);
+INSERT INTO Doctor VALUES (2000000001, 'Test Doctor', 'Test', 2000000001);
+INSERT INTO Appointment (appnt_ID, adate, time_slot, status) VALUES (2000000001, DATE '2030-01-07', '8:00-10:00', 'AV');
+INSERT INTO Appointment (appnt_ID, adate, time_slot, status) VALUES (2000000002, DATE '2030-01-07', '8:30-9:30', 'AV');
+
+INSERT INTO has_appointment VALUES (2000000001, 2000000001) ON CONFLICT (appt_id, doctor_id) DO NOTHING;
+-- linking again is ignored
+INSERT INTO has_appointment VALUES (2000000001, 2000000001) ON CONFLICT (appt_id, doctor_id) DO NOTHING;
+
+DO $$
+BEGIN
+	INSERT INTO has_appointment VALUES (2000000002, 2000000001) ON CONFLICT (appt_id, doctor_id) DO NOTHING;
+	RAISE EXCEPTION 'overlapping booking of 8:30-9:30 was accepted';
+EXCEPTION WHEN exclusion_violation THEN
+	RAISE NOTICE 'ok: overlapping booking rejected';
+END;
+$$;
+
+ROLLBACK;